@@ -2,27 +2,112 @@ package com.example.aoopproject;
 
 import com.example.aoopproject.LineClient;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class AuthService {
     private final LineClient client;
     public record Result(boolean ok, String message) {}
 
-    public AuthService(LineClient client) { this.client = client; }
+    // Session from the last successful login, shared by every screen's AuthService.
+    private static volatile String sessionUser;
+    private static volatile String sessionToken;
+
+    private final boolean binary;
+
+    // -Dauth.binary=true switches every screen to the binary framing
+    public AuthService(LineClient client) { this(client, Boolean.getBoolean("auth.binary")); }
+
+    /** binary = length-prefixed frames: credentials are sent as typed, nothing is sanitized. */
+    public AuthService(LineClient client, boolean binary) {
+        this.client = client;
+        this.binary = binary;
+    }
 
     public Result login(String username, String password) {
-        return send("LOGIN: " + sanitize(username) + ", " + sanitize(password));
+        String user = binary ? username : sanitize(username);
+        // always checked by the server; the token only stands in for the password after this
+        Result r = binary ? sendBinary(LineClient.OP_LOGIN, user, password)
+                : send("LOGIN: " + user + ", " + sanitize(password));
+        if (!r.ok()) return r;
+        int t = r.message().indexOf("; token=");
+        if (t < 0) return r;
+        sessionToken = r.message().substring(t + 8).trim();
+        sessionUser = user;
+        return new Result(true, r.message().substring(0, t));
+    }
+
+    /** Resolves the cached session token; message is the username on success. */
+    public Result whoami() {
+        String token = sessionToken;
+        if (token == null) return new Result(false, "Not logged in");
+        Result r = binary ? sendBinary(LineClient.OP_TEXT, "WHOAMI: " + token) : send("WHOAMI: " + token);
+        if (!r.ok()) clearSession(token);
+        return r;
     }
 
+    public Result logout() {
+        String token = sessionToken;
+        if (token == null) return new Result(false, "Not logged in");
+        clearSession(token);
+        return binary ? sendBinary(LineClient.OP_TEXT, "LOGOUT: " + token) : send("LOGOUT: " + token);
+    }
+
+    public static String currentUser() { return sessionUser; }
+
     // (You’ll reuse this for your signup screen later)
     public Result signup(String username, String email, String password) {
+        if (binary) return sendBinary(LineClient.OP_SIGNUP, username, email, password);
         return send("SIGNUP: " + sanitize(username) + ", " + sanitize(email) + ", " + sanitize(password));
     }
 
+    /** Outcome of one BULK_SIGNUP batch; skipped holds the server's "SKIP ..." lines. */
+    public record BulkResult(boolean ok, String message, List<String> skipped) {}
+
+    /** Registers up to a few thousand {username, email, password} rows in one request. */
+    public BulkResult bulkSignup(List<String[]> users) {
+        return bulkSignup(null, users);
+    }
+
+    /** Same, into one school's user store (tenant null = the default store). */
+    public BulkResult bulkSignup(String tenant, List<String[]> users) {
+        List<String> rows = new ArrayList<>(users.size());
+        for (String[] u : users) rows.add(sanitize(u[0]) + "," + sanitize(u[1]) + "," + sanitize(u[2]));
+        try {
+            List<String> reply = client.requestLines("BULK_SIGNUP: " + (tenant == null ? "" : tenant + "/") + rows.size(), rows);
+            String last = reply.get(reply.size() - 1);
+            List<String> skipped = new ArrayList<>();
+            for (String l : reply) if (l.startsWith("SKIP ")) skipped.add(l.substring(5));
+            return new BulkResult(last.startsWith("SUCCESS:"), last.replaceFirst("^(SUCCESS:|ERROR:)\\s*", ""), skipped);
+        } catch (Exception e) {
+            return new BulkResult(false, "Network error: " + e.getMessage(), List.of());
+        }
+    }
+
+    private static synchronized void clearSession(String token) {
+        if (token.equals(sessionToken)) {
+            sessionToken = null;
+            sessionUser = null;
+        }
+    }
+
     private Result send(String line) {
         try {
-            String resp = client.request(line);
-            boolean ok = resp.startsWith("SUCCESS:");
-            String msg = resp.replaceFirst("^(SUCCESS:|ERROR:)\\s*", "");
-            return new Result(ok, msg);
+            return parse(client.request(line));
+        } catch (Exception e) {
+            return new Result(false, "Network error: " + e.getMessage());
+        }
+    }
+
+    private static Result parse(String resp) {
+        boolean ok = resp.startsWith("SUCCESS:");
+        String msg = resp.replaceFirst("^(SUCCESS:|ERROR:)\\s*", "");
+        return new Result(ok, msg);
+    }
+
+    private Result sendBinary(int opcode, String... fields) {
+        try {
+            return parse(client.requestBinary(opcode, fields));
         } catch (Exception e) {
             return new Result(false, "Network error: " + e.getMessage());
         }
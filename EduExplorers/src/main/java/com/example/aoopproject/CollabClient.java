@@ -3,14 +3,27 @@ package com.example.aoopproject;
 import java.io.*;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.function.Consumer;
 
+/**
+ * Connection to CollabServer. Asks for protocol v2 (binary stroke frames, see the server's
+ * StrokeProtocol) and falls back to v1 text lines when the server answers a plain OK or does
+ * not know HELLO/2; -Dcollab.protocol=1 skips the attempt. Either way onMessage gets v1 lines:
+ * incoming v2 frames are turned back into the EVT/EVTS lines a v1 server would have sent.
+ */
 public class CollabClient {
+    // v2 frame types and tools, as in the server's StrokeProtocol
+    private static final int TEXT = 0, BEGIN = 1, POINTS = 2, END = 3;
+    public static final int TOOL_PEN = 0, TOOL_PENCIL = 1, TOOL_BRUSH = 2, TOOL_ERASER = 3;
+
     private final String host;
     private final int port;
     private Socket socket;
     private PrintWriter out;
-    private BufferedReader in;
+    private DataOutputStream frames;
+    private boolean v2;
     private Thread readerThread;
     private Consumer<String> onMessage;
 
@@ -23,20 +36,53 @@ public class CollabClient {
         this.onMessage = onMessage;
     }
 
+    public boolean isV2() {
+        return v2;
+    }
+
     public void connect(String username, String room) throws IOException {
+        boolean tryV2 = !"1".equals(System.getProperty("collab.protocol"));
+        if (tryV2) {
+            try {
+                open(username, room, true);
+                return;
+            } catch (Refused e) {
+                // a server without v2 refuses HELLO/2 outright; try again the v1 way
+                close();
+                if (e.reply == null || !e.reply.startsWith("ERR Expected HELLO")) throw e;
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+        open(username, room, false);
+    }
+
+    private void open(String username, String room, boolean askV2) throws IOException {
         socket = new Socket(host, port);
-        out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
-        in  = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+        InputStream in = new BufferedInputStream(socket.getInputStream());
+        OutputStream os = socket.getOutputStream();
+        os.write(((askV2 ? "HELLO/2 " : "HELLO ") + username + " " + room + "\n").getBytes(StandardCharsets.UTF_8));
+        os.flush();
 
-        out.println("HELLO " + username + " " + room);
-        String ok = in.readLine();
-        if (!"OK".equals(ok)) throw new IOException("Server refused: " + ok);
+        // read by hand: frames may follow the OK in the same buffer
+        String ok = readLine(in);
+        v2 = "OK 2".equals(ok);
+        if (!v2 && !"OK".equals(ok)) throw new Refused(ok);
+        if (v2) {
+            frames = new DataOutputStream(new BufferedOutputStream(os));
+        } else {
+            out = new PrintWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), true);
+        }
 
         readerThread = new Thread(() -> {
             try {
-                String line;
-                while ((line = in.readLine()) != null) {
-                    if (onMessage != null) onMessage.accept(line);
+                if (v2) {
+                    readFrames(new DataInputStream(in));
+                } else {
+                    BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                    String line;
+                    while ((line = lines.readLine()) != null) deliver(line);
                 }
             } catch (IOException ignored) {}
         }, "collab-client-reader");
@@ -45,21 +91,189 @@ public class CollabClient {
     }
 
     public void sendDraw(String phase, double x, double y, String colorHex, double width) {
-        out.println("DRAW " + phase + " " + x + " " + y + " " + colorHex + " " + width);
+        sendDraw(phase, x, y, colorHex, width, TOOL_PEN);
+    }
+
+    /** One DRAW point; v2 sends colour, width and tool once per stroke, in the DOWN's header. */
+    public void sendDraw(String phase, double x, double y, String colorHex, double width, int tool) {
+        if (!v2) {
+            out.println("DRAW " + phase + " " + x + " " + y + " " + colorHex + " " + width);
+            return;
+        }
+        ByteArrayOutputStream f = new ByteArrayOutputStream(16);
+        switch (phase) {
+            case "DOWN" -> {
+                int rgb = rgb(colorHex);
+                f.write(BEGIN);
+                varint(f, 0);
+                varint(f, 0);
+                f.write(rgb >> 16);
+                f.write(rgb >> 8);
+                f.write(rgb);
+                varint(f, quantize(width));
+                f.write(tool);
+            }
+            case "MOVE" -> {
+                f.write(POINTS);
+                varint(f, 0);
+                varint(f, 1);
+            }
+            case "UP" -> {
+                f.write(END);
+                varint(f, 0);
+            }
+            default -> { return; }
+        }
+        zigzag(f, quantize(x));
+        zigzag(f, quantize(y));
+        writeFrame(f);
     }
 
     public void sendChat(String message) {
         if (message == null) return;
-        out.println("CHAT " + message);
+        sendLine("CHAT " + message);
     }
 
     public void leave() {
-        out.println("LEAVE");
+        sendLine("LEAVE");
         close();
     }
 
     public void close() {
         try { if (out != null) out.flush(); } catch (Exception ignored) {}
+        try { if (frames != null) frames.flush(); } catch (Exception ignored) {}
         try { if (socket != null) socket.close(); } catch (Exception ignored) {}
     }
+
+    private void sendLine(String line) {
+        if (!v2) {
+            out.println(line);
+            return;
+        }
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream f = new ByteArrayOutputStream(b.length + 4);
+        f.write(TEXT);
+        varint(f, b.length);
+        f.write(b, 0, b.length);
+        writeFrame(f);
+    }
+
+    private synchronized void writeFrame(ByteArrayOutputStream f) {
+        try {
+            f.writeTo(frames);
+            frames.flush();
+        } catch (IOException ignored) {} // like PrintWriter: the reader sees the connection drop
+    }
+
+    private void deliver(String line) {
+        if (onMessage != null) onMessage.accept(line);
+    }
+
+    // ---------- v2 decoding ----------
+
+    private record Sender(String name, String style) {}
+
+    private void readFrames(DataInputStream in) throws IOException {
+        Map<Integer, Sender> senders = new HashMap<>();
+        while (true) {
+            int type = in.read();
+            if (type < 0) return;
+            if (type == TEXT) {
+                byte[] b = new byte[readVarint(in)];
+                in.readFully(b);
+                deliver(new String(b, StandardCharsets.UTF_8));
+                continue;
+            }
+            int id = readVarint(in);
+            if (type == BEGIN) {
+                byte[] name = new byte[readVarint(in)];
+                in.readFully(name);
+                int rgb = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+                String style = String.format("#%06X", rgb) + " " + decimal(readVarint(in));
+                in.readUnsignedByte(); // tool: the canvas draws every remote stroke the same way
+                Sender s = new Sender(new String(name, StandardCharsets.UTF_8), style);
+                senders.put(id, s);
+                deliver("EVT " + s.name() + " DOWN " + decimal(readZigzag(in)) + " " + decimal(readZigzag(in)) + " " + style);
+            } else if (type == POINTS) {
+                Sender s = senders.getOrDefault(id, new Sender("?", "#000000 1.0"));
+                int n = readVarint(in);
+                StringBuilder line = new StringBuilder(n == 1 ? "EVT " + s.name() + " MOVE" : "EVTS " + s.name() + " " + s.style());
+                int x = 0, y = 0;
+                for (int i = 0; i < n; i++) {
+                    x += readZigzag(in);
+                    y += readZigzag(in);
+                    line.append(' ').append(decimal(x)).append(' ').append(decimal(y));
+                }
+                if (n == 1) line.append(' ').append(s.style());
+                deliver(line.toString());
+            } else if (type == END) {
+                Sender s = senders.getOrDefault(id, new Sender("?", "#000000 1.0"));
+                deliver("EVT " + s.name() + " UP " + decimal(readZigzag(in)) + " " + decimal(readZigzag(in)) + " " + s.style());
+            } else {
+                throw new IOException("Bad frame type: " + type);
+            }
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(16);
+        int b;
+        while ((b = in.read()) != '\n' && b >= 0) line.write(b);
+        return b < 0 && line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8).trim();
+    }
+
+    private static int rgb(String hex) {
+        try {
+            return hex.length() == 7 && hex.charAt(0) == '#' ? Integer.parseInt(hex.substring(1), 16) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int quantize(double v) {
+        return (int) Math.round(v * 10);
+    }
+
+    private static String decimal(int q) {
+        return Double.toString(q / 10.0);
+    }
+
+    private static void varint(ByteArrayOutputStream f, int v) {
+        while ((v & ~0x7F) != 0) {
+            f.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        f.write(v);
+    }
+
+    private static void zigzag(ByteArrayOutputStream f, int v) {
+        varint(f, (v << 1) ^ (v >> 31));
+    }
+
+    private static int readVarint(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Bad varint");
+    }
+
+    private static int readZigzag(DataInputStream in) throws IOException {
+        int u = readVarint(in);
+        return (u >>> 1) ^ -(u & 1);
+    }
+
+    /** HELLO answered with something other than OK; reply is that line, null if the server hung up. */
+    private static final class Refused extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final String reply;
+
+        Refused(String reply) {
+            super(reply == null ? "Server closed the connection" : "Server refused: " + reply);
+            this.reply = reply;
+        }
+    }
 }
@@ -22,6 +22,7 @@ public class CollabDrawingController {
     @FXML private TextArea chatArea;
     @FXML private TextField chatInput;
 
+    private final AuthService auth = new AuthService(new LineClient("localhost", 6000));
     private CollabClient collab;
     private GraphicsContext g;
     private boolean joined = false;
@@ -34,6 +35,13 @@ public class CollabDrawingController {
         g = canvas.getGraphicsContext2D();
         colorPicker.setValue(Color.BLACK);
 
+        // logged in: draw under the account's name, which onJoin checks against the session
+        String loggedIn = AuthService.currentUser();
+        if (loggedIn != null) {
+            usernameField.setText(loggedIn);
+            usernameField.setEditable(false);
+        }
+
         // Tool selection logic
         pencilBtn.setOnAction(e -> selectTool(Tool.PENCIL));
         brushBtn.setOnAction(e -> selectTool(Tool.BRUSH));
@@ -68,7 +76,12 @@ public class CollabDrawingController {
         if (!joined) return;
 
         DrawParams p = paramsForCurrentTool();
-        collab.sendDraw(phase, x, y, p.colorHex(), p.width());
+        int tool = switch (currentTool) {
+            case PENCIL -> CollabClient.TOOL_PENCIL;
+            case BRUSH -> CollabClient.TOOL_BRUSH;
+            case ERASER -> CollabClient.TOOL_ERASER;
+        };
+        collab.sendDraw(phase, x, y, p.colorHex(), p.width(), tool);
         drawLocal(phase, x, y, p.colorHex(), p.width(), p.capRound(), p.joinRound());
     }
 
@@ -105,6 +118,15 @@ public class CollabDrawingController {
                 showAlert("Error", "Please enter username and room name.");
                 return;
             }
+            if (AuthService.currentUser() != null) {
+                AuthService.Result who = auth.whoami();
+                if (!who.ok()) {
+                    usernameField.setEditable(true);
+                    showAlert("Session expired", "Please log in again (" + who.message() + ").");
+                    return;
+                }
+                user = who.message();
+            }
 
             collab = new CollabClient("127.0.0.1", 6001);
             collab.setOnMessage(this::handleMessage);
@@ -149,6 +171,18 @@ public class CollabDrawingController {
                 double width = Double.parseDouble(p[6]);
                 Platform.runLater(() -> drawLocal(p[2], x, y, colorHex, width, true, true));
             }
+        } else if (line.startsWith("EVTS ")) {
+            // EVTS user color width x1 y1 x2 y2 ...: MOVE points the server batched on its tick
+            String[] p = line.split("\\s+");
+            if (p.length >= 6) {
+                String colorHex = p[2];
+                double width = Double.parseDouble(p[3]);
+                double[] xy = new double[(p.length - 4) / 2 * 2];
+                for (int i = 0; i < xy.length; i++) xy[i] = Double.parseDouble(p[4 + i]);
+                Platform.runLater(() -> {
+                    for (int i = 0; i < xy.length; i += 2) drawLocal("MOVE", xy[i], xy[i + 1], colorHex, width, true, true);
+                });
+            }
         } else if (line.startsWith("CHAT ")) {
             String[] parts = line.split(" ", 3);
             if (parts.length >= 3) {
@@ -0,0 +1,81 @@
+package com.example.aoopproject;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line import of a class list into the auth server.
+ * Input: CSV with username,email,password per line (a first line starting with "username" is
+ * treated as a header). Rows go out in BULK_SIGNUP batches through AuthService.
+ *
+ * Usage: CsvUserImport &lt;users.csv&gt; [host] [port] [batchSize] [tenant]
+ * With a tenant the users go to that school's store and log in as "tenant/username".
+ */
+public class CsvUserImport {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: CsvUserImport <users.csv> [host] [port] [batchSize] [tenant]");
+            System.exit(2);
+        }
+        String host = args.length > 1 ? args[1] : "localhost";
+        int port = args.length > 2 ? Integer.parseInt(args[2]) : 6000;
+        int batchSize = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+        String tenant = args.length > 4 ? args[4] : null;
+
+        // a batch waits for all of its hashes before replying, so allow a generous read timeout
+        AuthService auth = new AuthService(new LineClient(host, port, 3000, 120_000));
+        int total = 0, imported = 0;
+        List<String[]> batch = new ArrayList<>(batchSize);
+        try (BufferedReader br = Files.newBufferedReader(Paths.get(args[0]), StandardCharsets.UTF_8)) {
+            String line;
+            boolean first = true;
+            while ((line = br.readLine()) != null) {
+                if (first && line.toLowerCase().startsWith("username")) {
+                    first = false;
+                    continue;
+                }
+                first = false;
+                if (line.isBlank()) continue;
+                String[] p = line.split(",", -1);
+                if (p.length < 3) {
+                    System.err.println("Bad row, skipped: " + line);
+                    continue;
+                }
+                batch.add(p);
+                if (batch.size() == batchSize) {
+                    imported += send(auth, tenant, batch, total);
+                    total += batch.size();
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            imported += send(auth, tenant, batch, total);
+            total += batch.size();
+        }
+        System.out.println("Imported " + imported + " of " + total + " users");
+    }
+
+    /** Sends one batch; prints skipped rows with their position in the file. */
+    private static int send(AuthService auth, String tenant, List<String[]> batch, int offset) {
+        AuthService.BulkResult r = auth.bulkSignup(tenant, batch);
+        for (String skip : r.skipped()) {
+            int sp = skip.indexOf(' ');
+            String row = skip.substring(0, sp);
+            String where = row.equals("-") ? "" : "row " + (offset + Integer.parseInt(row)) + " ";
+            System.err.println("Skipped " + where + skip.substring(sp + 1));
+        }
+        if (!r.ok()) {
+            System.err.println("Batch at row " + (offset + 1) + " failed: " + r.message());
+            return 0;
+        }
+        String msg = r.message(); // "Imported k of n"
+        return Integer.parseInt(msg.split(" ")[1]);
+    }
+}
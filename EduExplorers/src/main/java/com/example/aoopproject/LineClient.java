@@ -4,26 +4,54 @@ import java.io.*;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
-public class LineClient {
+public class LineClient implements AutoCloseable {
     private final String host;
     private final int port;
     private final int connectTimeoutMs;
     private final int readTimeoutMs;
 
+    // persistent PIPELINE connections; empty array = classic one-shot mode
+    private final PipelinedConnection[] pool;
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
     public LineClient(String host, int port) {
         this(host, port, 3000, 5000);
     }
 
     public LineClient(String host, int port, int connectTimeoutMs, int readTimeoutMs) {
+        this(host, port, connectTimeoutMs, readTimeoutMs, 0);
+    }
+
+    /** poolSize > 0 keeps that many persistent connections open and pipelines requests over them. */
+    public LineClient(String host, int port, int connectTimeoutMs, int readTimeoutMs, int poolSize) {
         this.host = host;
         this.port = port;
         this.connectTimeoutMs = connectTimeoutMs;
         this.readTimeoutMs = readTimeoutMs;
+        this.pool = new PipelinedConnection[poolSize];
     }
 
     /** Sends one request line and returns one response line. */
     public String request(String line) throws IOException {
+        if (pool.length > 0) {
+            try {
+                return requestAsync(line).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException io) throw io;
+                if (cause instanceof TimeoutException) throw new IOException("Timed out waiting for server");
+                throw new IOException(cause);
+            }
+        }
         try (Socket s = new Socket()) {
             s.connect(new InetSocketAddress(host, port), connectTimeoutMs);
             s.setSoTimeout(readTimeoutMs);
@@ -37,4 +65,194 @@ public class LineClient {
             }
         }
     }
+
+    // binary framing (see the server's BinaryProtocol): magic, version, opcode, u16-prefixed UTF-8 fields
+    private static final int BINARY_MAGIC = 0xB1;
+    private static final int BINARY_VERSION = 1;
+    public static final int OP_TEXT = 0;
+    public static final int OP_SIGNUP = 1;
+    public static final int OP_LOGIN = 2;
+
+    /**
+     * Sends one binary frame and returns the reply lines joined by '\n'. Fields go over the wire
+     * verbatim, so they may contain commas, newlines or any other character.
+     */
+    public String requestBinary(int opcode, String... fields) throws IOException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(64);
+        frame.write(BINARY_MAGIC);
+        frame.write(BINARY_VERSION);
+        frame.write(opcode);
+        frame.write(fields.length);
+        for (String f : fields) {
+            byte[] b = f.getBytes(StandardCharsets.UTF_8);
+            if (b.length > 0xffff) throw new IOException("Field too long");
+            frame.write(b.length >>> 8);
+            frame.write(b.length);
+            frame.write(b, 0, b.length);
+        }
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            s.setSoTimeout(readTimeoutMs);
+            OutputStream out = s.getOutputStream();
+            frame.writeTo(out);
+            out.flush();
+
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+            if (in.readUnsignedByte() != BINARY_MAGIC || in.readUnsignedByte() != BINARY_VERSION) {
+                throw new IOException("Server does not speak the binary protocol");
+            }
+            in.readUnsignedByte(); // opcode echo
+            in.readUnsignedByte(); // status; the text of the first line says the same
+            int lines = in.readInt();
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < lines; i++) {
+                byte[] b = new byte[in.readUnsignedShort()];
+                in.readFully(b);
+                if (i > 0) sb.append('\n');
+                sb.append(new String(b, StandardCharsets.UTF_8));
+            }
+            return sb.toString();
+        }
+    }
+
+    /**
+     * One-shot exchange with a request body: sends {@code first}, then every body line as it is
+     * produced, and returns all reply lines up to the server's close. Never pipelined (BULK_SIGNUP).
+     */
+    public List<String> requestLines(String first, Iterable<String> body) throws IOException {
+        try (Socket s = new Socket()) {
+            s.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            s.setSoTimeout(readTimeoutMs);
+
+            try (var out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(s.getOutputStream(), StandardCharsets.UTF_8)));
+                 var in  = new BufferedReader(new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8))) {
+                out.println(first);
+                for (String line : body) out.println(line);
+                out.flush();
+                List<String> reply = new ArrayList<>();
+                String l;
+                while ((l = in.readLine()) != null) reply.add(l);
+                if (reply.isEmpty()) throw new EOFException("Server closed connection");
+                return reply;
+            }
+        }
+    }
+
+    /**
+     * Sends a request over a pooled persistent connection without waiting for the reply.
+     * Multi-line replies (GET_USERS, GET_LOGS) complete with their lines joined by '\n'.
+     * In one-shot mode the request simply runs on the common pool.
+     */
+    public CompletableFuture<String> requestAsync(String line) {
+        if (pool.length == 0) {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return request(line);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            });
+        }
+        try {
+            return connection().send(line).orTimeout(readTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    private PipelinedConnection connection() throws IOException {
+        int slot = Math.floorMod(nextSlot.getAndIncrement(), pool.length);
+        synchronized (pool) {
+            PipelinedConnection c = pool[slot];
+            if (c == null || c.closed) {
+                c = new PipelinedConnection(host, port, connectTimeoutMs);
+                pool[slot] = c;
+            }
+            return c;
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (pool) {
+            for (int i = 0; i < pool.length; i++) {
+                if (pool[i] != null) pool[i].close(new IOException("Client closed"));
+                pool[i] = null;
+            }
+        }
+    }
+
+    /**
+     * One PIPELINE connection. Requests go out as "&lt;id&gt; &lt;line&gt;"; the server answers in order with a
+     * "&lt;id&gt; &lt;lineCount&gt;" header and that many lines, so replies are matched FIFO and checked by id.
+     */
+    private static final class PipelinedConnection {
+        private final Socket socket;
+        private final PrintWriter out;
+        private final BufferedReader in;
+        private final Queue<Pending> pending = new ConcurrentLinkedQueue<>();
+        private long nextId = 1;
+        private volatile boolean closed;
+
+        private record Pending(String id, CompletableFuture<String> result) {}
+
+        PipelinedConnection(String host, int port, int connectTimeoutMs) throws IOException {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+            socket.setTcpNoDelay(true);
+            out = new PrintWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8), true);
+            in  = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+            out.println("PIPELINE");
+            String ok = in.readLine();
+            if (!"OK: PIPELINE".equals(ok)) {
+                socket.close();
+                throw new IOException("Server refused pipelining: " + ok);
+            }
+
+            Thread reader = new Thread(this::readLoop, "line-client-reader");
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        synchronized CompletableFuture<String> send(String line) throws IOException {
+            if (closed) throw new IOException("Connection closed");
+            Pending p = new Pending(Long.toString(nextId++), new CompletableFuture<>());
+            pending.add(p);
+            out.println(p.id() + " " + line);
+            return p.result();
+        }
+
+        private void readLoop() {
+            try {
+                String header;
+                while ((header = in.readLine()) != null) {
+                    int sp = header.indexOf(' ');
+                    Pending p = pending.poll();
+                    if (sp < 0 || p == null || !p.id().equals(header.substring(0, sp))) {
+                        throw new IOException("Out-of-order response: " + header);
+                    }
+                    int count = Integer.parseInt(header.substring(sp + 1));
+                    StringBuilder sb = new StringBuilder();
+                    for (int i = 0; i < count; i++) {
+                        String l = in.readLine();
+                        if (l == null) throw new EOFException("Server closed connection");
+                        if (i > 0) sb.append('\n');
+                        sb.append(l);
+                    }
+                    p.result().complete(sb.toString());
+                }
+                close(new EOFException("Server closed connection"));
+            } catch (IOException | NumberFormatException e) {
+                close(e instanceof IOException io ? io : new IOException(e));
+            }
+        }
+
+        void close(IOException cause) {
+            closed = true;
+            try { socket.close(); } catch (IOException ignored) {}
+            Pending p;
+            while ((p = pending.poll()) != null) p.result().completeExceptionally(cause);
+        }
+    }
 }
@@ -0,0 +1,317 @@
+package com.example.aoopproject;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * Closed-loop classroom load against the auth (6000) and collab (6001) servers.
+ * Every virtual student runs signup -> login -> join room -> draw strokes -> chat -> leave,
+ * waiting for each reply and a random think time before the next step, and starts over
+ * until the run ends. Students start evenly spread over the ramp-up.
+ *
+ * Usage: LoadGenerator [students] [rooms]   (default 30 students, 1 room)
+ * Settings, all -Dload.*:
+ *   host (localhost), authPort (6000), collabPort (6001)
+ *   rampSec (10)      students start spread over this many seconds
+ *   durationSec (0)   keep looping for this long; 0 = one session per student
+ *   thinkMs (1000)    mean pause between steps (exponentially distributed)
+ *   strokes (5), points (20), pointMs (16)   drawing per session
+ *   chats (2)         chat messages per session; their echo gives the collab round trip
+ *   seed              draw the same strokes on every run (per student), to compare protocols
+ *                     on one session: -Dcollab.protocol=1 keeps the students on v1 text
+ *   fork=<cp>         start Server and CollabServer from this classpath in a scratch data
+ *                     folder first, then stop them and delete the folder; serverOpts adds JVM options
+ *                     for both, e.g. -Dload.serverOpts="-Dserver.mode=nio -Dserver.throttle=false"
+ *
+ * Logins are subject to the server's per-address throttle, like a real classroom behind one
+ * address; "slow down" replies are counted as login errors.
+ */
+public class LoadGenerator {
+
+    private static final String HOST = System.getProperty("load.host", "localhost");
+    private static final int AUTH_PORT = Integer.getInteger("load.authPort", 6000);
+    private static final int COLLAB_PORT = Integer.getInteger("load.collabPort", 6001);
+    private static final long RAMP_MS = TimeUnit.SECONDS.toMillis(Integer.getInteger("load.rampSec", 10));
+    private static final long DURATION_MS = TimeUnit.SECONDS.toMillis(Integer.getInteger("load.durationSec", 0));
+    private static final long THINK_MS = Long.getLong("load.thinkMs", 1000);
+    private static final int STROKES = Integer.getInteger("load.strokes", 5);
+    private static final int POINTS = Integer.getInteger("load.points", 20);
+    private static final long POINT_MS = Long.getLong("load.pointMs", 16);
+    private static final int CHATS = Integer.getInteger("load.chats", 2);
+    private static final Long SEED = Long.getLong("load.seed");
+
+    // one per step, printed in this order
+    private static final Step SIGNUP = new Step("signup");
+    private static final Step LOGIN = new Step("login");
+    private static final Step JOIN = new Step("join");
+    private static final Step DRAW = new Step("draw");
+    private static final Step CHAT = new Step("chat");
+    private static final Step LEAVE = new Step("leave");
+    private static final Step[] STEPS = { SIGNUP, LOGIN, JOIN, DRAW, CHAT, LEAVE };
+
+    private static final Map<String, LongAdder> ERRORS = new ConcurrentHashMap<>();
+    private static final LongAdder SESSIONS = new LongAdder();
+    private static final LongAdder EVENTS_RECEIVED = new LongAdder();
+    private static final String RUN = Long.toString(System.currentTimeMillis() % 1_000_000, 36);
+
+    public static void main(String[] args) throws Exception {
+        int students = args.length > 0 ? Integer.parseInt(args[0]) : 30;
+        int rooms = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+
+        String forkCp = System.getProperty("load.fork");
+        if (forkCp == null) {
+            run(students, rooms);
+            return;
+        }
+        Path dir = Files.createTempDirectory("loadgen");
+        List<Process> servers = new ArrayList<>();
+        try {
+            forkServers(forkCp, dir, servers);
+            run(students, rooms);
+        } finally {
+            stop(servers);
+            delete(dir);
+        }
+    }
+
+    private static void run(int students, int rooms) throws InterruptedException {
+        System.out.println("Load: " + students + " students in " + rooms + " room(s) -> " + HOST + ":" + AUTH_PORT
+                + "/" + COLLAB_PORT + ", ramp " + RAMP_MS / 1000 + "s, think " + THINK_MS + "ms");
+        LineClient auth = new LineClient(HOST, AUTH_PORT, 3000, 30_000);
+        CountDownLatch done = new CountDownLatch(students);
+        long start = System.nanoTime();
+        long end = DURATION_MS > 0 ? System.currentTimeMillis() + RAMP_MS + DURATION_MS : 0;
+        for (int i = 0; i < students; i++) {
+            int id = i;
+            long delay = students > 1 ? RAMP_MS * i / (students - 1) : 0;
+            Random strokes = SEED != null ? new Random(SEED + id) : null;
+            Thread.ofVirtual().name("student-" + i).start(() -> {
+                try {
+                    Thread.sleep(delay);
+                    int pass = 0;
+                    do {
+                        session(auth, "s" + RUN + "x" + id + "n" + pass++, "room" + (id % rooms), strokes);
+                    } while (end > 0 && System.currentTimeMillis() < end);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        report(System.nanoTime() - start);
+    }
+
+    /** One pass through the classroom flow with a fresh account; stops at the first failed step. */
+    private static void session(LineClient auth, String user, String room, Random strokes) throws InterruptedException {
+        String password = "pw-" + user;
+
+        if (!authStep(SIGNUP, auth, "SIGNUP: " + user + ", " + user + "@load.test, " + password)) return;
+        think();
+        if (!authStep(LOGIN, auth, "LOGIN: " + user + ", " + password)) return;
+        think();
+
+        CollabClient collab = new CollabClient(HOST, COLLAB_PORT);
+        Map<String, Long> pendingChats = new ConcurrentHashMap<>();
+        String chatPrefix = "CHAT " + user + " ";
+        collab.setOnMessage(line -> {
+            if (line.startsWith("EVT ")) {
+                EVENTS_RECEIVED.increment();
+            } else if (line.startsWith("EVTS ")) {
+                EVENTS_RECEIVED.add((line.split(" ").length - 4) / 2);
+            } else if (line.startsWith(chatPrefix)) {
+                Long sent = pendingChats.remove(line.substring(chatPrefix.length()));
+                if (sent != null) CHAT.ok(System.nanoTime() - sent);
+            }
+        });
+        long t = System.nanoTime();
+        try {
+            collab.connect(user, room);
+            JOIN.ok(System.nanoTime() - t);
+        } catch (IOException e) {
+            JOIN.error(e.getMessage());
+            collab.close();
+            return;
+        }
+        try {
+            for (int s = 0; s < STROKES; s++) {
+                think();
+                t = System.nanoTime();
+                Random r = strokes != null ? strokes : ThreadLocalRandom.current();
+                double x = r.nextDouble(600), y = r.nextDouble(400);
+                collab.sendDraw("DOWN", x, y, "#222222", 3);
+                for (int p = 0; p < POINTS; p++) {
+                    Thread.sleep(POINT_MS);
+                    x += r.nextDouble(-8, 8);
+                    y += r.nextDouble(-8, 8);
+                    collab.sendDraw("MOVE", x, y, "#222222", 3);
+                }
+                DRAW.ok(System.nanoTime() - t);
+            }
+            for (int c = 0; c < CHATS; c++) {
+                think();
+                String msg = "hello " + c;
+                pendingChats.put(msg, System.nanoTime());
+                collab.sendChat(msg);
+            }
+            // give the last echoes a moment; anything still missing counts as lost
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!pendingChats.isEmpty() && System.currentTimeMillis() < deadline) Thread.sleep(10);
+            for (int i = 0; i < pendingChats.size(); i++) CHAT.error("no echo within 5s");
+            think();
+        } finally {
+            t = System.nanoTime();
+            collab.leave();
+            LEAVE.ok(System.nanoTime() - t);
+        }
+        SESSIONS.increment();
+    }
+
+    private static boolean authStep(Step step, LineClient auth, String line) {
+        long t = System.nanoTime();
+        try {
+            String reply = auth.request(line);
+            if (reply.startsWith("SUCCESS:")) {
+                step.ok(System.nanoTime() - t);
+                return true;
+            }
+            step.error(reply);
+        } catch (IOException e) {
+            step.error("network: " + e.getMessage());
+        }
+        return false;
+    }
+
+    private static void think() throws InterruptedException {
+        if (THINK_MS <= 0) return;
+        double u = ThreadLocalRandom.current().nextDouble();
+        Thread.sleep((long) (-Math.log(1 - u) * THINK_MS));
+    }
+
+    private static void report(long elapsedNanos) {
+        double secs = elapsedNanos / 1e9;
+        System.out.printf("%nElapsed %.1fs, %d sessions completed (%.2f/s), %d draw points received%n",
+                secs, SESSIONS.sum(), SESSIONS.sum() / secs, EVENTS_RECEIVED.sum());
+        System.out.printf("%-8s %8s %8s %9s %10s %10s %10s %10s%n",
+                "step", "ok", "errors", "ok/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        for (Step s : STEPS) {
+            long[] v = s.sorted();
+            System.out.printf("%-8s %8d %8d %9.1f %10.2f %10.2f %10.2f %10.2f%n",
+                    s.name, v.length, s.errors.sum(), v.length / secs,
+                    ms(percentile(v, 0.50)), ms(percentile(v, 0.95)), ms(percentile(v, 0.99)),
+                    ms(v.length == 0 ? 0 : v[v.length - 1]));
+        }
+        if (!ERRORS.isEmpty()) {
+            System.out.println("\nErrors:");
+            new TreeMap<>(ERRORS).forEach((k, n) -> System.out.println("  " + n.sum() + "  " + k));
+        }
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(q * sorted.length) - 1)];
+    }
+
+    private static double ms(long nanos) {
+        return nanos / 1e6;
+    }
+
+    /** Starts both servers in dir, adding them to started, and waits until their ports accept connections. */
+    private static void forkServers(String cp, Path dir, List<Process> started) throws IOException, InterruptedException {
+        String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        String opts = System.getProperty("load.serverOpts", "");
+        for (String main : new String[] { "com.server.server.Server", "com.server.server.CollabServer" }) {
+            List<String> cmd = new ArrayList<>(List.of(java, "-cp", cp, "-Ddb.dir=" + dir.resolve("data"), "-Dserver.verbose=false"));
+            if (!opts.isBlank()) cmd.addAll(Arrays.asList(opts.trim().split("\\s+")));
+            cmd.add(main);
+            String name = main.substring(main.lastIndexOf('.') + 1);
+            started.add(new ProcessBuilder(cmd).directory(dir.toFile()).redirectErrorStream(true)
+                    .redirectOutput(dir.resolve(name + ".log").toFile()).start());
+        }
+        for (int port : new int[] { AUTH_PORT, COLLAB_PORT }) {
+            if (!waitForPort(port, 20_000)) {
+                // the folder goes away with the run, so show the logs now
+                for (Path log : List.of(dir.resolve("Server.log"), dir.resolve("CollabServer.log"))) {
+                    System.err.println("--- " + log.getFileName());
+                    if (Files.exists(log)) System.err.print(Files.readString(log));
+                }
+                throw new IOException("Forked server did not open port " + port);
+            }
+        }
+        System.out.println("Forked servers in " + dir);
+    }
+
+    /** Stops the forked servers and waits for them, so nothing still has files open in their folder. */
+    private static void stop(List<Process> servers) throws InterruptedException {
+        for (Process p : servers) p.destroy();
+        for (Process p : servers) {
+            if (!p.waitFor(10, TimeUnit.SECONDS)) p.destroyForcibly().waitFor();
+        }
+    }
+
+    private static void delete(Path dir) {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not remove " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private static boolean waitForPort(int port, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (System.currentTimeMillis() < deadline) {
+            try (Socket s = new Socket()) {
+                s.connect(new InetSocketAddress(HOST, port), 500);
+                return true;
+            } catch (IOException e) {
+                Thread.sleep(200);
+            }
+        }
+        return false;
+    }
+
+    /** Latencies of one step, kept whole so the percentiles are exact. */
+    private static final class Step {
+        final String name;
+        final LongAdder errors = new LongAdder();
+        private long[] samples = new long[1024];
+        private int size;
+
+        Step(String name) {
+            this.name = name;
+        }
+
+        synchronized void ok(long nanos) {
+            if (size == samples.length) samples = Arrays.copyOf(samples, size * 2);
+            samples[size++] = nanos;
+        }
+
+        void error(String reason) {
+            errors.increment();
+            ERRORS.computeIfAbsent(name + ": " + reason, k -> new LongAdder()).increment();
+        }
+
+        synchronized long[] sorted() {
+            long[] v = Arrays.copyOf(samples, size);
+            Arrays.sort(v);
+            return v;
+        }
+    }
+}
@@ -11,8 +11,12 @@ import java.io.IOException;
 
 public class MenuController {
 
+    private final AuthService auth = new AuthService(new LineClient("localhost", 6000));
+
     @FXML
     private void handleBack(ActionEvent event) throws IOException {
+        // Log Out: end the session on the server too, without holding up the scene change
+        new Thread(auth::logout, "logout-task").start();
         // Load login.fxml instead of welcome.fxml
         FXMLLoader loader = new FXMLLoader(getClass().getResource("login.fxml"));
         Parent root = loader.load();
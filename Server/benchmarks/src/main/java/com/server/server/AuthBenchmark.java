@@ -0,0 +1,76 @@
+package com.server.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * registerUser and validateLogin through DatabaseHelper, for each password scheme.
+ *   loginHit / loginWrongPassword -> one hash on the HashingPool
+ *   loginMiss / loginBanned       -> rejected before any hashing
+ *   loginHitContended             -> loginHit from every core at once; compare its score with
+ *                                    loginHit's to see how login throughput scales
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AuthBenchmark {
+
+    @Param({"sha256", "bcrypt"})
+    public String hash;
+
+    private final AtomicInteger next = new AtomicInteger();
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkData.useTempDataDir();
+        System.setProperty("db.hash", hash);
+        DatabaseHelper.registerUser("hit", "hit@bench.test", "secret");
+        DatabaseHelper.registerUser("banned", "banned@bench.test", "secret");
+        DatabaseHelper.banUser("banned");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.delete(dir);
+    }
+
+    @Benchmark
+    public boolean registerUser() {
+        int n = next.getAndIncrement();
+        return DatabaseHelper.registerUser("new" + n, "new" + n + "@bench.test", "secret");
+    }
+
+    @Benchmark
+    public boolean loginHit() {
+        return DatabaseHelper.validateLogin("hit", "secret");
+    }
+
+    @Benchmark
+    public boolean loginWrongPassword() {
+        return DatabaseHelper.validateLogin("hit", "wrong");
+    }
+
+    @Benchmark
+    public boolean loginMiss() {
+        return DatabaseHelper.validateLogin("nobody", "secret");
+    }
+
+    @Benchmark
+    public boolean loginBanned() {
+        return DatabaseHelper.validateLogin("banned", "secret");
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean loginHitContended() {
+        return DatabaseHelper.validateLogin("hit", "secret");
+    }
+}
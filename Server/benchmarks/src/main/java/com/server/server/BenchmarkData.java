@@ -0,0 +1,45 @@
+package com.server.server;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Scratch data folders for the benchmarks. DatabaseHelper reads its settings once, when the class
+ * is first touched, so each benchmark sets these up before its first DatabaseHelper call; JMH
+ * forks a fresh JVM per benchmark and parameter set, so every run starts from an empty store.
+ */
+final class BenchmarkData {
+
+    private BenchmarkData() {}
+
+    /** Points db.dir at a new temp folder and keeps the compactor out of the measurements. */
+    static Path useTempDataDir() throws IOException {
+        Path dir = Files.createTempDirectory("server-bench");
+        System.setProperty("db.dir", dir.toString());
+        System.setProperty("db.journal.compactSec", "86400");
+        return dir;
+    }
+
+    /** Registers users u0..u(n-1) with BULK_SIGNUP batches. */
+    static void seedUsers(int n) {
+        for (int start = 0; start < n; start += 10_000) {
+            try (UserShard.BulkSignup bulk = DatabaseHelper.beginBulkSignup()) {
+                for (int i = start; i < Math.min(n, start + 10_000); i++) {
+                    bulk.add("u" + i + ",u" + i + "@bench.test,secret" + i);
+                }
+                bulk.commit(skip -> { });
+            }
+        }
+    }
+
+    static void delete(Path dir) {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        } catch (IOException e) {
+            System.err.println("Could not remove " + dir + ": " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.server.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One DRAW relayed to a room, sockets left out: the old path (every recipient's autoflushing
+ * PrintWriter encodes the EVT line again) against the Outbox path (encode once, each recipient
+ * writes a duplicate() of the shared buffer through a gathering write). Allocation is the point,
+ * so run it with the GC profiler and read gc.alloc.rate.norm (bytes per broadcast):
+ *   mvn -f Server/benchmarks/pom.xml -Djmh.args="BroadcastBenchmark -prof gc"
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    private static final String USER = "alice.smith";
+    private static final String DRAW = "MOVE 123.45678901234 87.6543210987 #1e90ff 3.0";
+
+    @Param({"5", "30", "100"})
+    public int roomSize;
+
+    private PrintWriter[] writers;
+    private NullChannel channel;
+    private final ByteBuffer[] batch = new ByteBuffer[1];
+
+    @Setup
+    public void setUp() {
+        writers = new PrintWriter[roomSize - 1];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new PrintWriter(new OutputStreamWriter(OutputStream.nullOutputStream(), StandardCharsets.UTF_8), true);
+        }
+        channel = new NullChannel();
+    }
+
+    @Benchmark
+    public void printWriterPerRecipient() {
+        String msg = "EVT " + USER + " " + DRAW;
+        for (PrintWriter w : writers) w.println(msg);
+    }
+
+    @Benchmark
+    public long encodeOnce() {
+        ByteBuffer bytes = Outbox.encode("EVT " + USER + " " + DRAW);
+        for (int i = 1; i < roomSize; i++) {
+            batch[0] = bytes.duplicate(); // what Outbox.sendDraw queues
+            channel.write(batch, 0, 1);   // what its writer thread hands to the socket
+        }
+        return channel.written;
+    }
+
+    /** Takes everything it is given, like a socket with room in its send buffer. */
+    private static final class NullChannel implements GatheringByteChannel {
+        long written;
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            long n = 0;
+            for (int i = offset; i < offset + length; i++) {
+                n += srcs[i].remaining();
+                srcs[i].position(srcs[i].limit());
+            }
+            written += n;
+            return n;
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs) {
+            return write(srcs, 0, srcs.length);
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            int n = src.remaining();
+            src.position(src.limit());
+            written += n;
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
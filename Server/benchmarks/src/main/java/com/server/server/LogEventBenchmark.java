@@ -0,0 +1,45 @@
+package com.server.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DatabaseHelper.logEvent from one thread and from every core at once. The logger drops
+ * entries when its queue is full, so the drop counters are printed after each run; a score
+ * bought with drops is not a real improvement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LogEventBenchmark {
+
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkData.useTempDataDir();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.println(DatabaseHelper.logStats());
+        BenchmarkData.delete(dir);
+    }
+
+    @Benchmark
+    public void logEvent() {
+        DatabaseHelper.logEvent("LOGIN_OK", "username=bench");
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void logEventContended() {
+        DatabaseHelper.logEvent("LOGIN_OK", "username=bench");
+    }
+}
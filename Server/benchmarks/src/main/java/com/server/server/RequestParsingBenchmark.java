@@ -0,0 +1,56 @@
+package com.server.server;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Request parsing only, no store: the SIGNUP/LOGIN text lines as handleSignup/handleLogin
+ * split them, and the same LOGIN as a binary frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestParsingBenchmark {
+
+    private static final String SIGNUP = "alice.smith, alice.smith@school.example, correct horse battery";
+    private static final String LOGIN = "alice.smith, correct horse battery";
+
+    private ByteBuffer loginFrame;
+
+    @Setup
+    public void setUp() {
+        byte[] user = "alice.smith".getBytes(StandardCharsets.UTF_8);
+        byte[] pass = "correct horse battery".getBytes(StandardCharsets.UTF_8);
+        loginFrame = ByteBuffer.allocate(8 + user.length + pass.length);
+        loginFrame.put((byte) BinaryProtocol.MAGIC).put((byte) BinaryProtocol.VERSION)
+                .put((byte) BinaryProtocol.OP_LOGIN).put((byte) 2)
+                .putShort((short) user.length).put(user)
+                .putShort((short) pass.length).put(pass);
+    }
+
+    @Benchmark
+    public String[] signupLine() {
+        return Server.fields(SIGNUP, 3);
+    }
+
+    @Benchmark
+    public String[] loginLine() {
+        return Server.fields(LOGIN, 2);
+    }
+
+    @Benchmark
+    public void loginFrame(Blackhole bh) {
+        int len = BinaryProtocol.frameLength(loginFrame);
+        BinaryProtocol.Frame f = BinaryProtocol.parse(loginFrame);
+        bh.consume(len);
+        bh.consume(f.field(0));
+        bh.consume(f.field(1));
+    }
+}
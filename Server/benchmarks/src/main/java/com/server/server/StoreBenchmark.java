@@ -0,0 +1,48 @@
+package com.server.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-table operations at different user counts: the GET_USERS listing and a forced
+ * snapshot (what journal compaction writes). Users are seeded with SHA-256, since hashing
+ * plays no part in either.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StoreBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int users;
+
+    private Path dir;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        dir = BenchmarkData.useTempDataDir();
+        System.setProperty("db.hash", "sha256");
+        BenchmarkData.seedUsers(users);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.delete(dir);
+    }
+
+    @Benchmark
+    public String getAllUsers() {
+        return DatabaseHelper.getAllUsers();
+    }
+
+    @Benchmark
+    public void persistUsers() throws Exception {
+        DatabaseHelper.persistUsers();
+    }
+}
@@ -0,0 +1,79 @@
+package com.server.server;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Cold start of one shard with the users.txt snapshot (store=text) and with the mapped users.db
+ * (store=mapped): the whole UserShard constructor, so loading, journal replay and buildIndexes
+ * all count, not just opening the store. Every iteration opens its own copy of the seeded folder;
+ * the copy is fresh on disk but warm in the page cache. Add -prof gc for the bytes it allocates:
+ *   mvn -f Server/benchmarks/pom.xml -Djmh.args="UserStoreBenchmark -prof gc"
+ * UserShard has no close, so each iteration's shard stays open until JMH ends the fork.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UserStoreBenchmark {
+
+    @Param({"10000", "100000", "1000000"})
+    public int users;
+
+    @Param({"text", "mapped"})
+    public String store;
+
+    private Path root, seed, shardDir;
+    private int iteration;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = BenchmarkData.useTempDataDir(); // also keeps the compactor quiet
+        System.setProperty("db.store", store);
+        seed = Files.createDirectory(root.resolve("seed"));
+        generate(seed.resolve("users.txt"), users);
+        if (store.equals("mapped")) MappedUserStore.convert(seed.resolve("users.txt"), seed.resolve("users.db"));
+    }
+
+    @Setup(Level.Iteration)
+    public void copySeed() throws IOException {
+        shardDir = Files.createDirectory(root.resolve("shard" + iteration++));
+        try (Stream<Path> files = Files.list(seed)) {
+            for (Path f : (Iterable<Path>) files::iterator) Files.copy(f, shardDir.resolve(f.getFileName()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        BenchmarkData.delete(root);
+    }
+
+    @Benchmark
+    public UserShard openShard() {
+        return new UserShard(shardDir);
+    }
+
+    /** Rows shaped like real SHA-256 ones: 32 hex salt, 64 hex hash. */
+    private static void generate(Path csv, int n) throws IOException {
+        Random rnd = new Random(n);
+        byte[] salt = new byte[16], hash = new byte[32];
+        try (BufferedWriter w = Files.newBufferedWriter(csv, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < n; i++) {
+                rnd.nextBytes(salt);
+                rnd.nextBytes(hash);
+                w.write("user" + i + ",user" + i + "@example.com," + PasswordHasher.Sha256.toHex(salt) + ","
+                        + PasswordHasher.Sha256.toHex(hash) + ",ACTIVE\n");
+            }
+        }
+    }
+}
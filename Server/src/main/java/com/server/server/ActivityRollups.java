@@ -0,0 +1,381 @@
+package com.server.server;
+
+import java.io.*;
+import java.nio.file.*;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Usage counters kept up to date as events are logged, so reports never scan logs.txt.
+ *   per minute (last 24h), per hour (last 31 days), per day (last 400 days): count by event type
+ *   per day: distinct active users (a LOGIN_OK or SIGNUP_OK that day)
+ *   per user: total by event type
+ * Each time ring is one flat AtomicLongArray of slot x type counters plus the bucket each slot
+ * currently holds; a slot is zeroed when its bucket comes round again. Buckets follow local time,
+ * like the log timestamps. Checkpointed to rollups.bin periodically and at shutdown; events since
+ * the last checkpoint are lost on a crash.
+ *
+ * REPORT spec: comma separated key=value pairs, all optional:
+ *   by=minute|hour|day    time series, one row per bucket (default day)
+ *   by=active             distinct active users per day
+ *   by=user, user=NAME    totals by event type for one user
+ *   by=top                users with the highest count of one event (needs event=)
+ *   event=A|B             event types to include (default all seen)
+ *   last=N                number of buckets, newest last (default 60 / 24 / 7)
+ *   limit=N               rows for by=top (default 10)
+ */
+public class ActivityRollups {
+
+    static final int MAX_TYPES = 32;
+    private static final long MINUTE = 60_000L, HOUR = 60 * MINUTE, DAY = 24 * HOUR;
+    private static final Set<String> ACTIVE_EVENTS = Set.of("LOGIN_OK", "SIGNUP_OK");
+    private static final int MAGIC = 0x524C5550; // "RLUP"
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final int maxUsers;
+    private final Map<String, Integer> typeIds = new ConcurrentHashMap<>();
+    private final String[] typeNames = new String[MAX_TYPES];
+    private volatile int typeCount; // written under typeIds
+
+    private final Ring minutes = new Ring(MINUTE, 24 * 60, MAX_TYPES);
+    private final Ring hours = new Ring(HOUR, 31 * 24, MAX_TYPES);
+    private final Ring days = new Ring(DAY, 400, MAX_TYPES);
+    private final Ring activeDays = new Ring(DAY, 400, 1);
+    private final ConcurrentHashMap<String, UserStats> users = new ConcurrentHashMap<>();
+    private final LongAdder untracked = new LongAdder();
+
+    public ActivityRollups(Path file, int maxUsers) {
+        this.file = file;
+        this.maxUsers = maxUsers;
+    }
+
+    /**
+     * Loads rollups.bin if present and checkpoints every db.rollups.checkpointSec (60) and at
+     * shutdown; db.rollups.maxUsers (200000) caps the per-user table.
+     */
+    public static ActivityRollups fromProperties(Path file) {
+        ActivityRollups r = new ActivityRollups(file, Integer.getInteger("db.rollups.maxUsers", 200_000));
+        try {
+            r.load();
+        } catch (IOException e) {
+            System.err.println("Rollups not loaded, starting empty: " + e.getMessage());
+        }
+        long sec = Long.getLong("db.rollups.checkpointSec", 60);
+        Executors.newSingleThreadScheduledExecutor(t -> {
+            Thread th = new Thread(t, "rollups-checkpoint");
+            th.setDaemon(true);
+            return th;
+        }).scheduleWithFixedDelay(r::checkpointQuietly, sec, sec, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(r::checkpointQuietly, "rollups-checkpoint"));
+        return r;
+    }
+
+    /** Counts one event; username may be null when the event is not about a known user. */
+    public void record(String event, String username) {
+        int type = typeId(event);
+        if (type < 0) return;
+        long now = localMillis(System.currentTimeMillis());
+        minutes.add(now / MINUTE, type);
+        hours.add(now / HOUR, type);
+        days.add(now / DAY, type);
+        if (username == null) return;
+
+        UserStats u = users.get(username);
+        if (u == null) {
+            if (users.size() >= maxUsers) {
+                untracked.increment();
+                return;
+            }
+            u = users.computeIfAbsent(username, k -> new UserStats());
+        }
+        u.totals.incrementAndGet(type);
+        if (ACTIVE_EVENTS.contains(event)) {
+            long day = now / DAY;
+            long prev;
+            while ((prev = u.lastActiveDay.get()) < day) {
+                if (u.lastActiveDay.compareAndSet(prev, day)) {
+                    activeDays.add(day, 0);
+                    break;
+                }
+            }
+        }
+    }
+
+    // ---------- REPORT ----------
+
+    /** Writes a header and one line per row to sink; returns the row count. */
+    public int report(String spec, Consumer<String> sink) {
+        Map<String, String> q = new HashMap<>();
+        for (String part : spec.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) continue;
+            int eq = p.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Bad parameter: " + p);
+            String key = p.substring(0, eq).trim();
+            if (!Set.of("by", "event", "last", "user", "limit").contains(key)) {
+                throw new IllegalArgumentException("Unknown parameter: " + key);
+            }
+            q.put(key, p.substring(eq + 1).trim());
+        }
+        String by = q.getOrDefault("by", "day");
+        return switch (by) {
+            case "minute" -> series(minutes, 60, q, sink);
+            case "hour" -> series(hours, 24, q, sink);
+            case "day" -> series(days, 7, q, sink);
+            case "active" -> active(intParam(q, "last", 7), sink);
+            case "user" -> user(q.get("user"), sink);
+            case "top" -> top(q.get("event"), intParam(q, "limit", 10), sink);
+            default -> throw new IllegalArgumentException("Unknown by: " + by);
+        };
+    }
+
+    private int series(Ring ring, int defaultLast, Map<String, String> q, Consumer<String> sink) {
+        int last = Math.min(ring.slots(), intParam(q, "last", defaultLast));
+        List<String> events = eventsOf(q.get("event"));
+        StringBuilder header = new StringBuilder(ring.width == DAY ? "day" : ring.width == HOUR ? "hour" : "minute");
+        for (String e : events) header.append(',').append(e);
+        sink.accept(header.toString());
+        long newest = localMillis(System.currentTimeMillis()) / ring.width;
+        for (long b = newest - last + 1; b <= newest; b++) {
+            StringBuilder row = new StringBuilder(label(b, ring.width));
+            for (String e : events) {
+                Integer t = typeIds.get(e);
+                row.append(',').append(t == null ? 0 : ring.get(b, t)); // not seen yet: zeros
+            }
+            sink.accept(row.toString());
+        }
+        return last;
+    }
+
+    private int active(int last, Consumer<String> sink) {
+        last = Math.min(activeDays.slots(), last);
+        sink.accept("day,active_users");
+        long today = localMillis(System.currentTimeMillis()) / DAY;
+        for (long d = today - last + 1; d <= today; d++) {
+            sink.accept(label(d, DAY) + "," + activeDays.get(d, 0));
+        }
+        return last;
+    }
+
+    private int user(String username, Consumer<String> sink) {
+        if (username == null || username.isEmpty()) throw new IllegalArgumentException("by=user needs user=");
+        sink.accept("event,total");
+        UserStats u = users.get(username);
+        if (u == null) return 0;
+        int rows = 0;
+        for (int t = 0; t < typeCount; t++) {
+            long n = u.totals.get(t);
+            if (n == 0) continue;
+            sink.accept(typeNames[t] + "," + n);
+            rows++;
+        }
+        return rows;
+    }
+
+    /** One pass over the per-user table with a bounded heap. */
+    private int top(String event, int limit, Consumer<String> sink) {
+        if (event == null || event.isEmpty()) throw new IllegalArgumentException("by=top needs event=");
+        sink.accept("username," + event);
+        Integer type = typeIds.get(event);
+        if (type == null || limit <= 0) return 0;
+        PriorityQueue<Map.Entry<String, Long>> heap = new PriorityQueue<>(Map.Entry.comparingByValue());
+        users.forEach((name, u) -> {
+            long n = u.totals.get(type);
+            if (n == 0) return;
+            if (heap.size() < limit) {
+                heap.add(Map.entry(name, n));
+            } else if (n > heap.peek().getValue()) {
+                heap.poll();
+                heap.add(Map.entry(name, n));
+            }
+        });
+        List<Map.Entry<String, Long>> rows = new ArrayList<>(heap);
+        rows.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        for (Map.Entry<String, Long> e : rows) sink.accept(e.getKey() + "," + e.getValue());
+        return rows.size();
+    }
+
+    public String describe() {
+        return "rollups types=" + typeCount + " users=" + users.size() + "/" + maxUsers + " untracked=" + untracked.sum();
+    }
+
+    // ---------- Checkpoint ----------
+
+    private void checkpointQuietly() {
+        try {
+            checkpoint();
+        } catch (IOException e) {
+            System.err.println("Rollups checkpoint failed: " + e.getMessage());
+        }
+    }
+
+    /** Writes everything to a temp file and swaps it in; counters keep moving meanwhile. */
+    public synchronized void checkpoint() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            int types = typeCount;
+            out.writeInt(types);
+            for (int t = 0; t < types; t++) out.writeUTF(typeNames[t]);
+            for (Ring r : new Ring[] { minutes, hours, days, activeDays }) r.write(out);
+            List<Map.Entry<String, UserStats>> entries = new ArrayList<>(users.entrySet());
+            out.writeInt(entries.size());
+            for (Map.Entry<String, UserStats> e : entries) {
+                UserStats u = e.getValue();
+                out.writeUTF(e.getKey());
+                out.writeLong(u.lastActiveDay.get());
+                int nonZero = 0;
+                for (int t = 0; t < types; t++) if (u.totals.get(t) != 0) nonZero++;
+                out.writeByte(nonZero);
+                for (int t = 0; t < types && nonZero > 0; t++) {
+                    long n = u.totals.get(t);
+                    if (n == 0) continue;
+                    out.writeByte(t);
+                    out.writeLong(n);
+                    nonZero--;
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        if (Files.notExists(file)) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) throw new IOException("not a rollups file");
+            int types = in.readInt();
+            for (int t = 0; t < types; t++) typeId(in.readUTF());
+            for (Ring r : new Ring[] { minutes, hours, days, activeDays }) r.read(in);
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                UserStats u = new UserStats();
+                u.lastActiveDay.set(in.readLong());
+                int nonZero = in.readUnsignedByte();
+                for (int k = 0; k < nonZero; k++) u.totals.set(in.readUnsignedByte(), in.readLong());
+                users.put(name, u);
+            }
+        }
+    }
+
+    // ---------- Internals ----------
+
+    private int typeId(String event) {
+        Integer id = typeIds.get(event);
+        if (id != null) return id;
+        synchronized (typeIds) {
+            id = typeIds.get(event);
+            if (id != null) return id;
+            if (typeCount == MAX_TYPES) return -1;
+            typeNames[typeCount] = event;
+            typeIds.put(event, typeCount);
+            return typeCount++;
+        }
+    }
+
+    private List<String> eventsOf(String events) {
+        List<String> out = new ArrayList<>();
+        if (events == null || events.isEmpty()) {
+            for (int t = 0; t < typeCount; t++) out.add(typeNames[t]);
+        } else {
+            for (String e : events.split("\\|")) out.add(e.trim());
+        }
+        return out;
+    }
+
+    private static int intParam(Map<String, String> q, String key, int def) {
+        String v = q.get(key);
+        return v == null ? def : Math.max(0, Integer.parseInt(v));
+    }
+
+    /** Wall-clock millis shifted into the local zone, so bucket boundaries fall on local midnight. */
+    private static long localMillis(long utcMillis) {
+        return utcMillis + TimeZone.getDefault().getOffset(utcMillis);
+    }
+
+    private static String label(long bucket, long width) {
+        String iso = LocalDateTime.ofEpochSecond(bucket * width / 1000, 0, ZoneOffset.UTC).toString();
+        return width == DAY ? iso.substring(0, 10) : width == HOUR ? iso.substring(0, 13) : iso.substring(0, 16);
+    }
+
+    private static final class UserStats {
+        final AtomicLongArray totals = new AtomicLongArray(MAX_TYPES);
+        final AtomicLong lastActiveDay = new AtomicLong(-1);
+    }
+
+    /**
+     * Fixed ring of buckets: slot = bucket mod slots. stamps[slot] says which bucket the slot's
+     * counters belong to; the first event of a new bucket zeroes the slot under the ring's lock,
+     * every other event is a single atomic increment.
+     */
+    private static final class Ring {
+        final long width;
+        private final int types;
+        private final AtomicLongArray stamps;
+        private final AtomicLongArray counts;
+
+        Ring(long width, int slots, int types) {
+            this.width = width;
+            this.types = types;
+            this.stamps = new AtomicLongArray(slots);
+            this.counts = new AtomicLongArray(slots * types);
+            for (int i = 0; i < slots; i++) stamps.set(i, -1);
+        }
+
+        int slots() {
+            return stamps.length();
+        }
+
+        void add(long bucket, int type) {
+            int slot = (int) Math.floorMod(bucket, (long) slots());
+            long stamp = stamps.get(slot);
+            if (stamp != bucket) {
+                if (stamp > bucket) return; // clock went back past a whole ring
+                synchronized (this) {
+                    if (stamps.get(slot) != bucket) {
+                        for (int t = 0; t < types; t++) counts.set(slot * types + t, 0);
+                        stamps.set(slot, bucket);
+                    }
+                }
+            }
+            counts.incrementAndGet(slot * types + type);
+        }
+
+        long get(long bucket, int type) {
+            int slot = (int) Math.floorMod(bucket, (long) slots());
+            return stamps.get(slot) == bucket ? counts.get(slot * types + type) : 0;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeInt(slots());
+            out.writeInt(types);
+            for (int s = 0; s < slots(); s++) {
+                long stamp = stamps.get(s);
+                out.writeLong(stamp);
+                if (stamp < 0) continue;
+                for (int t = 0; t < types; t++) out.writeLong(counts.get(s * types + t));
+            }
+        }
+
+        void read(DataInputStream in) throws IOException {
+            int slots = in.readInt(), fileTypes = in.readInt();
+            if (slots != slots() || fileTypes != types) throw new IOException("ring layout changed");
+            for (int s = 0; s < slots; s++) {
+                long stamp = in.readLong();
+                stamps.set(s, stamp);
+                if (stamp < 0) continue;
+                for (int t = 0; t < types; t++) counts.set(s * types + t, in.readLong());
+            }
+        }
+    }
+}
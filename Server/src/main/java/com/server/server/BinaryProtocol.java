@@ -0,0 +1,136 @@
+package com.server.server;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Length-prefixed binary framing for the auth port, chosen by the client's first byte.
+ * A text client's first byte is a printable ASCII letter, so MAGIC can never be mistaken for one.
+ *
+ * Request:  MAGIC, VERSION, opcode, nfields, then nfields x (u16 length, UTF-8 bytes)
+ * Reply:    MAGIC, VERSION, opcode, status (0 ok / 1 error), u32 nlines, then nlines x (u16 length, UTF-8 bytes)
+ *
+ * Opcodes: TEXT carries one ordinary protocol line (GET_USERS: ..., BAN: ..., STATS, ...);
+ * SIGNUP and LOGIN carry their values as separate fields, so passwords may hold any character.
+ * Reply lines are exactly what the text protocol would print. A binary connection stays open
+ * and answers frames in order until the client closes it.
+ */
+public final class BinaryProtocol {
+
+    public static final int MAGIC = 0xB1;
+    public static final int VERSION = 1;
+    public static final int MAX_FRAME = 8192;
+
+    public static final int OP_TEXT = 0;
+    public static final int OP_SIGNUP = 1;
+    public static final int OP_LOGIN = 2;
+
+    private static final int HEADER = 4;
+
+    private BinaryProtocol() {}
+
+    /**
+     * A parsed request. Fields are views into the frame's buffer, decoded only when asked for.
+     * The buffer must not change while the frame is in use.
+     */
+    public static final class Frame {
+        final int opcode;
+        private final ByteBuffer buf;
+        private final int[] offsets;
+        private final int[] lengths;
+
+        private Frame(int opcode, ByteBuffer buf, int[] offsets, int[] lengths) {
+            this.opcode = opcode;
+            this.buf = buf;
+            this.offsets = offsets;
+            this.lengths = lengths;
+        }
+
+        public int fields() {
+            return offsets.length;
+        }
+
+        public String field(int i) {
+            if (buf.hasArray()) {
+                return new String(buf.array(), buf.arrayOffset() + offsets[i], lengths[i], StandardCharsets.UTF_8);
+            }
+            return StandardCharsets.UTF_8.decode(buf.slice(offsets[i], lengths[i])).toString();
+        }
+    }
+
+    /**
+     * Length of the complete frame at the start of {@code buf}'s content [0, position),
+     * 0 if more bytes are needed, or -1 if the bytes are not a valid frame.
+     */
+    public static int frameLength(ByteBuffer buf) {
+        int end = buf.position();
+        if (end < HEADER) return 0;
+        if ((buf.get(0) & 0xff) != MAGIC || (buf.get(1) & 0xff) != VERSION) return -1;
+        int n = buf.get(3) & 0xff;
+        int at = HEADER;
+        for (int i = 0; i < n; i++) {
+            if (at + 2 > end) return at + 2 > MAX_FRAME ? -1 : 0;
+            at += 2 + (buf.getShort(at) & 0xffff);
+            if (at > MAX_FRAME) return -1;
+        }
+        return at <= end ? at : 0;
+    }
+
+    /** Parses a complete frame occupying {@code buf}[0, length); no bytes are copied. */
+    public static Frame parse(ByteBuffer buf) {
+        int n = buf.get(3) & 0xff;
+        int[] offsets = new int[n], lengths = new int[n];
+        int at = HEADER;
+        for (int i = 0; i < n; i++) {
+            lengths[i] = buf.getShort(at) & 0xffff;
+            offsets[i] = at + 2;
+            at += 2 + lengths[i];
+        }
+        return new Frame(buf.get(2) & 0xff, buf, offsets, lengths);
+    }
+
+    /** Reads one frame from a blocking stream into {@code dst}; returns its length, or -1 on a clean EOF. */
+    public static int read(DataInputStream in, byte[] dst) throws IOException {
+        int magic = in.read();
+        if (magic < 0) return -1;
+        dst[0] = (byte) magic;
+        in.readFully(dst, 1, HEADER - 1);
+        if (magic != MAGIC || (dst[1] & 0xff) != VERSION) throw new IOException("Bad frame header");
+        int n = dst[3] & 0xff;
+        int at = HEADER;
+        for (int i = 0; i < n; i++) {
+            int len = in.readUnsignedShort();
+            if (at + 2 + len > dst.length) throw new IOException("Frame too large");
+            dst[at] = (byte) (len >>> 8);
+            dst[at + 1] = (byte) len;
+            in.readFully(dst, at + 2, len);
+            at += 2 + len;
+        }
+        return at;
+    }
+
+    /** Encodes a text handler's output (lines separated by line separators) as a reply frame. */
+    public static ByteBuffer reply(int opcode, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        // count lines first so the buffer is sized once
+        int lines = 0;
+        for (int i = 0; i < bytes.length; i++) if (bytes[i] == '\n') lines++;
+        if (bytes.length > 0 && bytes[bytes.length - 1] != '\n') lines++;
+        ByteBuffer out = ByteBuffer.allocate(8 + bytes.length + 2 * lines);
+        out.put((byte) MAGIC).put((byte) VERSION).put((byte) opcode);
+        out.put((byte) (text.startsWith("ERROR:") ? 1 : 0));
+        out.putInt(lines);
+        int start = 0;
+        for (int i = 0; i <= bytes.length; i++) {
+            if (i < bytes.length && bytes[i] != '\n') continue;
+            if (i == bytes.length && start == i) break;
+            int end = i > start && bytes[i - 1] == '\r' ? i - 1 : i;
+            int len = Math.min(end - start, 0xffff);
+            out.putShort((short) len).put(bytes, start, len);
+            start = i + 1;
+        }
+        return out.flip();
+    }
+}
@@ -99,94 +99,497 @@ package com.server.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class CollabServer {
     private static final int PORT = 6001;
     private static final ConcurrentHashMap<String, CopyOnWriteArraySet<Client>> rooms = new ConcurrentHashMap<>();
+    // -Dcollab.executor=legacy|virtual|pool; virtual lets thousands of idle room members park cheaply
+    private static ConnectionExecutor connections;
+    // -Dcollab.tickHz=60 batches each sender's MOVE points into one EVTS line per tick; 0 relays each at once
+    private static final int TICK_HZ = Integer.getInteger("collab.tickHz", 0);
+    private static final LongAdder batchedPoints = new LongAdder();
+    private static final LongAdder batchLines = new LongAdder();
+    // -Dcollab.v2=false answers HELLO/2 with a plain OK, keeping every client on text lines
+    private static final boolean V2 = !"false".equalsIgnoreCase(System.getProperty("collab.v2"));
+    private static final AtomicInteger nextId = new AtomicInteger(1);
+    // bytes on the wire by protocol, for STATS
+    private static final LongAdder v1In = new LongAdder(), v1Out = new LongAdder();
+    private static final LongAdder v2In = new LongAdder(), v2Out = new LongAdder();
+    // drawing history per room, for students who join late; see RoomHistory
+    private static final ConcurrentHashMap<String, RoomHistory> histories = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService historyCompactor; // timed compaction, and any a full tail asks for
+    // ts,event,details lines like logs.txt, in a file of its own (-Dcollab.log): the auth server owns logs.txt
+    private static volatile EventLogger events;
 
     public static void main(String[] args) throws IOException {
-        try (ServerSocket ss = new ServerSocket(PORT)) {
-            System.out.println("CollabServer listening on " + PORT);
+        Path eventsFile = Paths.get(System.getProperty("collab.log",
+                Paths.get(System.getProperty("db.dir", "data"), "collab-events.txt").toString()));
+        if (eventsFile.getParent() != null) Files.createDirectories(eventsFile.getParent());
+        events = EventLogger.fromProperties(eventsFile);
+        connections = ConnectionExecutor.fromProperties("collab", "collab");
+        connections.startReporter("collab");
+        startTicker();
+        startHistoryCompactor();
+        // accepted through a channel so each Outbox can use gathering writes on it; still blocking I/O
+        try (ServerSocketChannel ss = ServerSocketChannel.open()) {
+            ss.setOption(StandardSocketOptions.SO_REUSEADDR, true); // as ServerSocket does, for quick restarts
+            ss.bind(new InetSocketAddress(PORT));
+            System.out.println("CollabServer listening on " + PORT + " (" + connections.mode().name().toLowerCase() + ")");
             while (true) {
-                Socket s = ss.accept();
-                new Thread(() -> handle(s)).start();
+                Socket s = ss.accept().socket();
+                if (!connections.submit(() -> handle(s))) {
+                    try { s.close(); } catch (IOException ignored) {}
+                }
             }
         }
     }
 
     private static void handle(Socket s) {
         Client client = null;
-        try (BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream(), "UTF-8"));
-             PrintWriter out = new PrintWriter(new OutputStreamWriter(s.getOutputStream(), "UTF-8"), true)) {
+        CountingInputStream counted;
+        try (InputStream in = new BufferedInputStream(counted = new CountingInputStream(s.getInputStream()))) {
 
-            String hello = in.readLine();
-            if (hello == null || !hello.startsWith("HELLO ")) {
-                out.println("ERR Expected HELLO <username> <room>");
+            // read by hand: a v2 client's frames may follow in the same buffer
+            String hello = readLine(in);
+            if (hello == null || !(hello.startsWith("HELLO ") || hello.startsWith("HELLO/2 "))) {
+                reject(s, "ERR Expected HELLO <username> <room>");
                 return;
             }
             String[] parts = hello.split("\\s+", 3);
             if (parts.length < 3) {
-                out.println("ERR Bad HELLO");
+                reject(s, "ERR Bad HELLO");
                 return;
             }
             String username = parts[1].trim();
             String room = parts[2].trim();
             if (username.isEmpty() || room.isEmpty()) {
-                out.println("ERR Missing username/room");
+                reject(s, "ERR Missing username/room");
                 return;
             }
+            boolean v2 = V2 && parts[0].equals("HELLO/2");
+            counted.to(v2 ? v2In : v1In);
 
-            client = new Client(username, room, s, out);
-            rooms.computeIfAbsent(room, k -> new CopyOnWriteArraySet<>()).add(client);
-            out.println("OK");
+            // from here on every write goes through the client's own queue; see Outbox. OK is
+            // queued (always as text) before joining and the writer started after, so OK is the
+            // first thing the client reads and it is already in the room when it reads it
+            Outbox out = new Outbox(s.getChannel(), username + "@" + room, Outbox.CAPACITY, Outbox.OVERFLOW,
+                    v2, v2 ? v2Out : v1Out);
+            RoomHistory history = RoomHistory.enabled() ? histories.computeIfAbsent(room, k -> new RoomHistory()) : null;
+            client = new Client(nextId.getAndIncrement(), username, room, v2, history, out);
+            out.send(Outbox.encode(v2 ? "OK " + StrokeProtocol.VERSION : "OK"));
+            RoomHistory.Replay replay = null;
+            if (history != null) {
+                // taken together with joining: every stroke event is in the replay or reaches
+                // the newcomer live, never both; live lines wait behind the replay
+                synchronized (history) {
+                    replay = history.capture();
+                    if (!replay.isEmpty()) out.beginReplay();
+                    rooms.computeIfAbsent(room, k -> new CopyOnWriteArraySet<>()).add(client);
+                }
+            } else {
+                rooms.computeIfAbsent(room, k -> new CopyOnWriteArraySet<>()).add(client);
+            }
+            out.start();
 
             broadcast(room, "INFO " + username + " joined", null);
 
-            String line;
-            while ((line = in.readLine()) != null) {
-                if (line.startsWith("DRAW ")) {
-                    broadcast(room, "EVT " + username + " " + line.substring(5), client);
-                } else if (line.startsWith("CHAT ")) {
-                    String msg = line.substring(5);
-                    broadcast(room, "CHAT " + username + " " + msg, null);
-                } else if (line.equals("LEAVE")) {
-                    break;
-                } else if (line.equals("PING")) {
-                    out.println("PONG");
-                } else {
-                    out.println("ERR Unknown cmd");
+            if (replay != null && !replay.isEmpty()) {
+                try {
+                    if (!RoomHistory.stream(replay, v2, out)) return;
+                } finally {
+                    out.endReplay();
+                }
+            }
+
+            if (v2) {
+                readFrames(client, new DataInputStream(in));
+            } else {
+                BufferedReader lines = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+                String line;
+                while ((line = lines.readLine()) != null && command(client, line)) {
                 }
             }
         } catch (IOException ignored) {
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         } finally {
             if (client != null) {
+                synchronized (client) {
+                    flushMoves(client);
+                    endStroke(client);
+                }
+                if (client.history != null) client.history.touch();
                 CopyOnWriteArraySet<Client> set = rooms.get(client.room);
                 if (set != null) {
                     set.remove(client);
                     if (set.isEmpty()) rooms.remove(client.room);
                     broadcast(client.room, "INFO " + client.username + " left", null);
                 }
+                client.out.closeAfterFlush(1000);
             }
             try { s.close(); } catch (Exception ignored) {}
         }
     }
 
+    /** Queues one event for the collab event log; a no-op until main has opened it. */
+    static void logEvent(String event, String details) {
+        EventLogger l = events;
+        if (l != null) l.log(LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME) + "," + event + "," + details);
+    }
+
+    /** One text command, from a v1 line or a v2 TEXT frame; false once the client leaves. */
+    private static boolean command(Client client, String line) {
+        Outbox out = client.out;
+        if (line.startsWith("DRAW ")) {
+            relayDraw(client, line.substring(5));
+        } else if (line.startsWith("CHAT ")) {
+            String msg = line.substring(5);
+            broadcast(client.room, "CHAT " + client.username + " " + msg, null);
+        } else if (line.equals("LEAVE")) {
+            return false;
+        } else if (line.equals("PING")) {
+            out.send("PONG");
+        } else if (line.equals("STATS")) {
+            out.send("STATS " + connections.describe() + " rooms=" + rooms.size() + " " + Outbox.totals()
+                    + " tickHz=" + TICK_HZ + " batches=" + batchLines.sum() + " batchedPoints=" + batchedPoints.sum()
+                    + " v1In=" + v1In.sum() + " v1Out=" + v1Out.sum() + " v2In=" + v2In.sum() + " v2Out=" + v2Out.sum()
+                    + " histories=" + histories.size() + " replays=" + RoomHistory.REPLAYS.sum()
+                    + " replayedMsgs=" + RoomHistory.REPLAYED_MESSAGES.sum());
+        } else if (line.equals("HISTORY")) {
+            out.send("HISTORY " + (client.history == null ? "off" : client.history.describe()));
+        } else if (line.equals("QUEUES") || line.startsWith("QUEUES ")) {
+            queues(line.length() > 7 ? line.substring(7).trim() : client.room, out);
+        } else {
+            out.send("ERR Unknown cmd");
+        }
+        return true;
+    }
+
+    /** A v2 client's frames until it leaves or disconnects; see StrokeProtocol. */
+    private static void readFrames(Client c, DataInputStream in) throws IOException {
+        while (true) {
+            StrokeProtocol.Frame f = StrokeProtocol.read(in);
+            int[] xy = f.xy();
+            switch (f.type()) {
+                case StrokeProtocol.TEXT -> {
+                    if (!command(c, f.text())) return;
+                }
+                case StrokeProtocol.BEGIN -> {
+                    Style style = new Style(StrokeProtocol.hex(f.rgb()), StrokeProtocol.decimal(f.width()), f.tool());
+                    synchronized (c) {
+                        c.inStyle = style;
+                    }
+                    relayPoint(c, "DOWN", Point.of(xy[0], xy[1]), style);
+                }
+                case StrokeProtocol.POINTS -> {
+                    List<Point> points = new ArrayList<>(xy.length / 2);
+                    for (int i = 0; i < xy.length; i += 2) points.add(Point.of(xy[i], xy[i + 1]));
+                    relayMoves(c, null, points);
+                }
+                case StrokeProtocol.END -> relayPoint(c, "UP", Point.of(xy[0], xy[1]), null);
+            }
+        }
+    }
+
+    /** Replies to a connection that never joined a room, then lets finally close it. */
+    private static void reject(Socket s, String msg) throws IOException {
+        OutputStream os = s.getOutputStream();
+        os.write((msg + "\n").getBytes(StandardCharsets.UTF_8));
+        os.flush();
+    }
+
+    /** A line of at most 1024 bytes without buffering past it; null at end of stream. */
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(64);
+        int b;
+        while ((b = in.read()) != '\n') {
+            if (b < 0) return line.size() == 0 ? null : line.toString(StandardCharsets.UTF_8);
+            if (line.size() >= 1024) throw new IOException("Line too long");
+            line.write(b);
+        }
+        String s = line.toString(StandardCharsets.UTF_8);
+        return s.endsWith("\r") ? s.substring(0, s.length() - 1) : s;
+    }
+
+    /** QUEUES [room|*]: one line per member with its outbound queue, then END. */
+    private static void queues(String room, Outbox out) {
+        int n = 0;
+        for (Map.Entry<String, CopyOnWriteArraySet<Client>> e : rooms.entrySet()) {
+            if (!room.equals("*") && !room.equals(e.getKey())) continue;
+            for (Client c : e.getValue()) {
+                out.send("QUEUE " + c.out.describe());
+                n++;
+            }
+        }
+        out.send("END " + n);
+    }
+
+    // Both encode once per protocol and only enqueue: every member gets a view of the same bytes,
+    // and a member whose socket is stalled fills its own Outbox, never the sender's thread.
     private static void broadcast(String room, String msg, Client except) {
         CopyOnWriteArraySet<Client> set = rooms.get(room);
         if (set == null) return;
+        ByteBuffer text = null, frame = null;
         for (Client c : set) {
             if (c == except) continue;
-            c.out.println(msg);
+            if (c.v2) {
+                if (frame == null) frame = StrokeProtocol.text(msg);
+                c.out.send(frame);
+            } else {
+                if (text == null) text = Outbox.encode(msg);
+                c.out.send(text);
+            }
         }
     }
 
+    /** A draw event as v1 text and as a v2 frame; a null form is not sent to that protocol's members. */
+    private static void broadcastDraw(Client sender, String v1, ByteBuffer v2, boolean move) {
+        CopyOnWriteArraySet<Client> set = rooms.get(sender.room);
+        if (set == null) return;
+        ByteBuffer text = null;
+        for (Client c : set) {
+            if (c == sender) continue;
+            if (c.v2) {
+                if (v2 != null) c.out.sendDraw(v2, sender.username, move);
+            } else if (v1 != null) {
+                if (text == null) text = Outbox.encode(v1);
+                c.out.sendDraw(text, sender.username, move);
+            }
+        }
+    }
+
+    // ---------- Strokes ----------
+
+    /** A stroke's look; v1 senders repeat it on every point, v2 senders send it once in BEGIN. */
+    record Style(String color, String width, int tool) {
+        static final Style DEFAULT = new Style("#000000", "1.0", StrokeProtocol.TOOL_PEN);
+    }
+
+    /** A point both as v1 prints it and quantized for v2. */
+    record Point(String x, String y, int qx, int qy) {
+        static Point of(String x, String y) {
+            return new Point(x, y, StrokeProtocol.quantize(Double.parseDouble(x)), StrokeProtocol.quantize(Double.parseDouble(y)));
+        }
+
+        static Point of(int qx, int qy) {
+            return new Point(StrokeProtocol.decimal(qx), StrokeProtocol.decimal(qy), qx, qy);
+        }
+    }
+
+    /** "DRAW phase x y color width" from a v1 client; anything malformed goes to v1 members as is. */
+    private static void relayDraw(Client c, String rest) {
+        String[] p = rest.split(" ");
+        if (p.length == 5 && (p[0].equals("DOWN") || p[0].equals("MOVE") || p[0].equals("UP"))) {
+            try {
+                Double.parseDouble(p[4]);
+                Point point = Point.of(p[1], p[2]);
+                Style style = new Style(p[3], p[4], StrokeProtocol.TOOL_PEN);
+                if (p[0].equals("MOVE")) relayMoves(c, style, List.of(point));
+                else relayPoint(c, p[0], point, style);
+                return;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        broadcastDraw(c, "EVT " + c.username + " " + rest, null, rest.startsWith("MOVE "));
+    }
+
+    /** DOWN or UP from c (style null = c's current v2 style): sends c's pending points first, so order holds. */
+    private static void relayPoint(Client c, String phase, Point p, Style style) {
+        synchronized (c) {
+            if (style == null) style = c.inStyle;
+            flushMoves(c);
+            String v1 = "EVT " + c.username + " " + phase + " " + p.x() + " " + p.y() + " " + style.color() + " " + style.width();
+            Point[] one = { p };
+            c.drawing = phase.equals("DOWN");
+            if (phase.equals("DOWN")) {
+                c.sentStyle = style;
+                record(c, new RoomHistory.Event(RoomHistory.DOWN, c.id, c.username, style, one), v1,
+                        StrokeProtocol.begin(c.id, c.username, StrokeProtocol.rgb(style.color()),
+                                StrokeProtocol.quantize(Double.parseDouble(style.width())), style.tool(), p.qx(), p.qy()), false);
+            } else {
+                record(c, new RoomHistory.Event(RoomHistory.UP, c.id, c.username, style, one), v1,
+                        StrokeProtocol.end(c.id, p.qx(), p.qy()), false);
+            }
+            c.last = p;
+        }
+    }
+
+    /**
+     * MOVE points from c (style null = c's current v2 style). With a tick they only join c's
+     * pending points; DOWN and UP flush those first (see relayPoint).
+     */
+    private static void relayMoves(Client c, Style style, List<Point> points) {
+        synchronized (c) {
+            if (style == null) style = c.inStyle;
+            if (TICK_HZ <= 0) {
+                sendMoves(c, style, points);
+                return;
+            }
+            if (!style.equals(c.pendingStyle)) flushMoves(c);
+            c.pendingStyle = style;
+            c.pending.addAll(points);
+        }
+    }
+
+    /**
+     * v1: "EVT user MOVE x y color width" for one point, "EVTS user color width x1 y1 x2 y2 ..."
+     * for more; v2: one POINTS frame. A v2 member only knows the style of the last BEGIN, so a
+     * style change without a DOWN (a v1 client may do that) first gets a v2-only BEGIN.
+     */
+    private static void sendMoves(Client c, Style style, List<Point> points) {
+        if (!style.equals(c.sentStyle)) {
+            Point from = c.last != null ? c.last : points.get(0);
+            broadcastDraw(c, null, StrokeProtocol.begin(c.id, c.username, StrokeProtocol.rgb(style.color()),
+                    StrokeProtocol.quantize(Double.parseDouble(style.width())), style.tool(), from.qx(), from.qy()), false);
+            c.sentStyle = style;
+        }
+        int n = points.size();
+        StringBuilder v1 = new StringBuilder(n == 1 ? "EVT " : "EVTS ").append(c.username);
+        if (n == 1) v1.append(" MOVE");
+        else v1.append(' ').append(style.color()).append(' ').append(style.width());
+        int[] xy = new int[2 * n];
+        for (int i = 0; i < n; i++) {
+            Point p = points.get(i);
+            v1.append(' ').append(p.x()).append(' ').append(p.y());
+            xy[2 * i] = p.qx();
+            xy[2 * i + 1] = p.qy();
+        }
+        if (n == 1) v1.append(' ').append(style.color()).append(' ').append(style.width());
+        record(c, new RoomHistory.Event(RoomHistory.MOVES, c.id, c.username, style, points.toArray(new Point[0])),
+                v1.toString(), StrokeProtocol.points(c.id, xy, n), true);
+        c.last = points.get(n - 1);
+        c.drawing = true;
+    }
+
+    /** Ends c's unfinished stroke where it stopped, for the room and its history, when c leaves mid-stroke. */
+    private static void endStroke(Client c) {
+        if (c.drawing && c.last != null) relayPoint(c, "UP", c.last, c.sentStyle);
+    }
+
+    /** Appends to the room's history and broadcasts as one step, so a newcomer gets e exactly once. */
+    private static void record(Client c, RoomHistory.Event e, String v1, ByteBuffer v2, boolean move) {
+        if (c.history == null) {
+            broadcastDraw(c, v1, v2, move);
+            return;
+        }
+        boolean compact;
+        synchronized (c.history) {
+            compact = c.history.append(e);
+            broadcastDraw(c, v1, v2, move);
+        }
+        // on the compactor's thread, so neither c nor the room waits for it
+        if (compact) historyCompactor.execute(c.history::compact);
+    }
+
+    // ---------- History ----------
+
+    /** Compacts every room's history on a timer and forgets rooms that stayed empty for keepSec. */
+    private static void startHistoryCompactor() {
+        if (!RoomHistory.enabled()) return;
+        historyCompactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "collab-history");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(1, RoomHistory.COMPACT_SEC);
+        historyCompactor.scheduleWithFixedDelay(() -> {
+            for (Map.Entry<String, RoomHistory> e : histories.entrySet()) {
+                RoomHistory h = e.getValue();
+                if (!rooms.containsKey(e.getKey()) && h.idleFor(TimeUnit.SECONDS.toMillis(RoomHistory.KEEP_SEC))) {
+                    histories.remove(e.getKey(), h);
+                } else {
+                    h.compact();
+                }
+            }
+        }, period, period, TimeUnit.SECONDS);
+    }
+
+    // ---------- MOVE batching ----------
+
+    private static void startTicker() {
+        if (TICK_HZ <= 0) return;
+        ScheduledExecutorService ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "collab-tick");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodMicros = 1_000_000L / TICK_HZ;
+        ticker.scheduleAtFixedRate(() -> {
+            for (CopyOnWriteArraySet<Client> set : rooms.values()) {
+                for (Client c : set) {
+                    synchronized (c) {
+                        flushMoves(c);
+                    }
+                }
+            }
+        }, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+    }
+
+    /** Sends c's pending points as one message. Callers hold c's lock, so a flush never overtakes c's next DOWN/UP. */
+    private static void flushMoves(Client c) {
+        if (c.pending.isEmpty()) return;
+        sendMoves(c, c.pendingStyle, c.pending);
+        batchLines.increment();
+        batchedPoints.add(c.pending.size());
+        c.pending.clear();
+    }
+
     private static class Client {
+        final int id;
         final String username, room;
-        final Socket socket;
-        final PrintWriter out;
-        Client(String u, String r, Socket s, PrintWriter o) {
-            this.username = u; this.room = r; this.socket = s; this.out = o;
+        final boolean v2;
+        final RoomHistory history; // null when history is off
+        final Outbox out;
+        // stroke state, guarded by this Client: the style of c's last v2 BEGIN (inStyle), the
+        // style v2 members last got (sentStyle), the last point relayed, whether a stroke is
+        // still open (no UP yet), and MOVE points a tick has yet to send
+        Style inStyle = Style.DEFAULT, sentStyle, pendingStyle;
+        Point last;
+        boolean drawing;
+        final List<Point> pending = new ArrayList<>();
+        Client(int id, String u, String r, boolean v2, RoomHistory h, Outbox o) {
+            this.id = id; this.username = u; this.room = r; this.v2 = v2; this.history = h; this.out = o;
+        }
+    }
+
+    /** Counts bytes read into whichever total the connection's protocol turns out to be. */
+    private static final class CountingInputStream extends FilterInputStream {
+        private LongAdder total;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        void to(LongAdder total) {
+            this.total = total;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0 && total != null) total.increment();
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0 && total != null) total.add(n);
+            return n;
         }
     }
 }
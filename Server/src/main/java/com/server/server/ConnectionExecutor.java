@@ -0,0 +1,103 @@
+package com.server.server;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Runs one task per accepted connection, in one of three modes:
+ *   legacy  -> a new platform Thread per connection (the original behaviour)
+ *   virtual -> a virtual thread per connection
+ *   pool    -> a bounded pool of platform threads; extra connections wait in a bounded queue
+ * Also keeps the live-connection and handler counts that CONN_STATS / STATS report.
+ */
+public class ConnectionExecutor {
+
+    public enum Mode { LEGACY, VIRTUAL, POOL }
+
+    private final String name;
+    private final Mode mode;
+    private final ExecutorService executor; // null in LEGACY mode
+    private final AtomicInteger live = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+    private final LongAdder accepted = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+
+    public ConnectionExecutor(String name, Mode mode, int poolSize, int queueCapacity) {
+        this.name = name;
+        this.mode = mode;
+        this.executor = switch (mode) {
+            case LEGACY -> null;
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-v", 0).factory());
+            case POOL -> new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(queueCapacity),
+                    Thread.ofPlatform().name(name + "-", 0).factory(),
+                    new ThreadPoolExecutor.AbortPolicy());
+        };
+    }
+
+    /**
+     * Reads -D&lt;prefix&gt;.executor=legacy|virtual|pool, &lt;prefix&gt;.poolSize and &lt;prefix&gt;.queue.
+     * Defaults to legacy so nothing changes unless asked.
+     */
+    public static ConnectionExecutor fromProperties(String name, String prefix) {
+        Mode mode = Mode.valueOf(System.getProperty(prefix + ".executor", "legacy").toUpperCase());
+        int poolSize = Integer.getInteger(prefix + ".poolSize", 200);
+        int queue = Integer.getInteger(prefix + ".queue", 1000);
+        return new ConnectionExecutor(name, mode, poolSize, queue);
+    }
+
+    /** Runs the connection handler; returns false if the pool is saturated and the caller should close the socket. */
+    public boolean submit(Runnable handler) {
+        live.incrementAndGet();
+        accepted.increment();
+        Runnable task = () -> {
+            running.incrementAndGet();
+            try {
+                handler.run();
+            } finally {
+                running.decrementAndGet();
+                live.decrementAndGet();
+            }
+        };
+        try {
+            if (executor == null) new Thread(task).start();
+            else executor.execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            live.decrementAndGet();
+            rejected.increment();
+            return false;
+        }
+    }
+
+    public Mode mode() { return mode; }
+
+    public int liveConnections() { return live.get(); }
+
+    /** One-line summary: connection counts plus how many platform threads the JVM is carrying. */
+    public String describe() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        return name + " mode=" + mode.name().toLowerCase()
+                + " live=" + live.get()
+                + " running=" + running.get()
+                + " accepted=" + accepted.sum()
+                + " rejected=" + rejected.sum()
+                + " platformThreads=" + threads.getThreadCount()
+                + " peakPlatformThreads=" + threads.getPeakThreadCount();
+    }
+
+    /** Prints describe() every intervalSec seconds when -D&lt;prefix&gt;.statsInterval is set. */
+    public void startReporter(String prefix) {
+        int intervalSec = Integer.getInteger(prefix + ".statsInterval", 0);
+        if (intervalSec <= 0) return;
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, name + "-stats");
+            t.setDaemon(true);
+            return t;
+        });
+        reporter.scheduleAtFixedRate(() -> System.out.println(describe()), intervalSec, intervalSec, TimeUnit.SECONDS);
+    }
+}
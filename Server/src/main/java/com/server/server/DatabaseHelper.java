@@ -1,224 +1,208 @@
 package com.server.server;
 
-import java.io.*;
-import java.nio.charset.StandardCharsets;
+import java.io.IOException;
 import java.nio.file.*;
-import java.security.MessageDigest;
-import java.security.SecureRandom;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
-import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 /**
- * Text-file "database".
- * users.txt  -> username,email,salt,hash,status
- * logs.txt   -> ISO_TIME,event,details
+ * Text-file "database", sharded by school (tenant).
+ * "greenfield/alice" is user alice of tenant greenfield, kept in data/greenfield/; a username
+ * without a tenant prefix lives in data/ itself, so existing installs keep their layout.
+ * Every shard is a UserShard with its own map, stripe locks, journal, log segments and rollups,
+ * so one school's bulk import or compaction never waits on another school's.
+ * A tenant exists once its folder does: either listed in -Ddb.tenants=a,b (folders created at
+ * startup) or made by an operator under data/. Shards are opened on first use. Requests never
+ * create a tenant: SIGNUP and BULK_SIGNUP refuse an unknown one, everything else treats it like
+ * an unknown user.
+ * Listing commands (GET_USERS:, GET_LOGS:, COUNT_LOGS:, REPORT:) pick a tenant with tenant=NAME.
  */
 public class DatabaseHelper {
 
-    private static final Path DATA_DIR   = Paths.get("data");
-    private static final Path USERS_FILE = DATA_DIR.resolve("users.txt");
-    private static final Path LOGS_FILE  = DATA_DIR.resolve("logs.txt");
+    private static final Path DATA_DIR = Paths.get(System.getProperty("db.dir", "data"));
+    // a folder name; "logs" is taken by the default shard's log segments
+    private static final Pattern TENANT_NAME = Pattern.compile("[a-z0-9][a-z0-9_-]{0,31}");
+    private static final int MAX_TENANTS = Integer.getInteger("db.tenants.max", 64);
 
-    private static final String STATUS_ACTIVE = "ACTIVE";
-    private static final String STATUS_BANNED = "BANNED";
-
-    // In-memory cache for speed; persisted on every change.
-    // username -> record
-    private static final Map<String, UserRecord> USERS = new LinkedHashMap<>();
+    private static final UserShard DEFAULT = new UserShard(DATA_DIR);
+    private static final ConcurrentHashMap<String, UserShard> TENANTS = new ConcurrentHashMap<>();
 
     static {
-        initFiles();
-        loadUsers();
+        createConfiguredTenants();
     }
 
     // ---------- Public API used by Server.java ----------
 
-    public static synchronized boolean registerUser(String username, String email, String password) {
-        if (username.isBlank() || email.isBlank() || password.isBlank()) {
-            logEvent("SIGNUP_FAIL", "Empty field(s) for username=" + username);
-            return false;
-        }
-        if (USERS.containsKey(username)) {
-            logEvent("SIGNUP_FAIL", "User exists: " + username);
+    public static boolean registerUser(String username, String email, String password) {
+        UserShard shard = shardOf(username);
+        if (shard == null) {
+            DEFAULT.logEvent("SIGNUP_FAIL", "Unknown or invalid tenant for username=" + username);
             return false;
         }
-        String salt = randomSalt();
-        String hash = hashPassword(password, salt);
-        UserRecord rec = new UserRecord(username, email, salt, hash, STATUS_ACTIVE);
-        USERS.put(username, rec);
-        persistUsers();
-        logEvent("SIGNUP_OK", "username=" + username + ", email=" + email);
-        return true;
-    }
-
-    public static synchronized boolean validateLogin(String username, String password) {
-        UserRecord rec = USERS.get(username);
-        if (rec == null) {
-            logEvent("LOGIN_FAIL", "no_such_user: " + username);
-            return false;
-        }
-        if (STATUS_BANNED.equals(rec.status)) {
-            logEvent("LOGIN_FAIL", "banned_user: " + username);
+        return shard.registerUser(nameOf(username), email, password);
+    }
+
+    public static boolean validateLogin(String username, String password) {
+        UserShard shard = shardOf(username);
+        if (shard == null) {
+            DEFAULT.logEvent("LOGIN_FAIL", "no_such_tenant: " + username);
             return false;
         }
-        boolean ok = slowEquals(hashPassword(password, rec.salt), rec.hash);
-        logEvent(ok ? "LOGIN_OK" : "LOGIN_FAIL", "username=" + username);
-        return ok;
+        return shard.validateLogin(nameOf(username), password);
     }
 
-    public static synchronized String getAllUsers() {
-        // Return as newline-separated CSV header + rows
-        StringBuilder sb = new StringBuilder("username,email,status");
-        for (UserRecord r : USERS.values()) {
-            sb.append("\n").append(r.username).append(",").append(r.email).append(",").append(r.status);
-        }
-        return sb.toString();
+    public static boolean banUser(String username) {
+        UserShard shard = shardOf(username);
+        return shard != null && shard.banUser(nameOf(username));
     }
 
-    public static synchronized String getLogs() {
-        try {
-            if (Files.notExists(LOGS_FILE)) return "";
-            return Files.readString(LOGS_FILE, StandardCharsets.UTF_8);
-        } catch (IOException e) {
-            return "ERROR: cannot read logs";
-        }
+    public static boolean resetUser(String username) {
+        UserShard shard = shardOf(username);
+        return shard != null && shard.resetUser(nameOf(username));
     }
 
-    public static synchronized boolean banUser(String username) {
-        UserRecord rec = USERS.get(username);
-        if (rec == null) return false;
-        if (STATUS_BANNED.equals(rec.status)) return true;
-        rec.status = STATUS_BANNED;
-        persistUsers();
-        logEvent("BAN", "username=" + username);
-        return true;
-    }
-
-    public static synchronized boolean resetUser(String username) {
-        // sets status ACTIVE and resets password to a random temporary password (returned in logs)
-        UserRecord rec = USERS.get(username);
-        if (rec == null) return false;
-        rec.status = STATUS_ACTIVE;
-        String temp = genTempPassword();
-        rec.salt = randomSalt();
-        rec.hash = hashPassword(temp, rec.salt);
-        persistUsers();
-        logEvent("RESET", "username=" + username + ", temp_password=" + temp);
-        return true;
-    }
-
-    public static synchronized void logEvent(String event, String details) {
-        try {
-            String ts = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
-            Files.createDirectories(DATA_DIR);
-            Files.writeString(
-                    LOGS_FILE,
-                    ts + "," + event + "," + details + System.lineSeparator(),
-                    StandardCharsets.UTF_8,
-                    Files.exists(LOGS_FILE) ? StandardOpenOption.APPEND : StandardOpenOption.CREATE
-            );
-        } catch (IOException ignored) {}
-    }
-
-    // ---------- Internals ----------
-
-    private static void initFiles() {
-        try {
-            Files.createDirectories(DATA_DIR);
-            if (Files.notExists(USERS_FILE)) Files.createFile(USERS_FILE);
-            if (Files.notExists(LOGS_FILE)) Files.createFile(LOGS_FILE);
-        } catch (IOException e) {
-            throw new RuntimeException("Failed to init data folder", e);
-        }
+    public static String getAllUsers() {
+        return DEFAULT.getAllUsers();
     }
 
-    private static void loadUsers() {
-        try (BufferedReader br = Files.newBufferedReader(USERS_FILE, StandardCharsets.UTF_8)) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (line.isBlank() || line.startsWith("#")) continue;
-                String[] p = line.split(",", -1);
-                if (p.length < 5) continue;
-                USERS.put(p[0], new UserRecord(p[0], p[1], p[2], p[3], p[4]));
-            }
-        } catch (IOException e) {
-            // ignore, start empty
-        }
+    /** Default tenant; see UserShard.streamUsers. */
+    public static String streamUsers(String cursor, int limit, String status, String domain, Consumer<String> sink) {
+        return DEFAULT.streamUsers(cursor, limit, status, domain, sink);
     }
 
-    private static void persistUsers() {
-        StringBuilder sb = new StringBuilder();
-        for (UserRecord r : USERS.values()) {
-            sb.append(r.username).append(",")
-                    .append(r.email).append(",")
-                    .append(r.salt).append(",")
-                    .append(r.hash).append(",")
-                    .append(r.status).append("\n");
-        }
-        try {
-            Files.writeString(USERS_FILE, sb.toString(), StandardCharsets.UTF_8, StandardOpenOption.TRUNCATE_EXISTING);
-        } catch (IOException e) {
-            // best-effort; caller already updated cache
-        }
+    /** Same for one tenant (null = default); the tenant must exist, see hasTenant. */
+    public static String streamUsers(String tenant, String cursor, int limit, String status, String domain,
+                                     Consumer<String> sink) {
+        return (tenant == null ? DEFAULT : existingTenant(tenant)).streamUsers(cursor, limit, status, domain, sink);
     }
 
-    private static String hashPassword(String password, String salt) {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(hexToBytes(salt));
-            byte[] digest = md.digest(password.getBytes(StandardCharsets.UTF_8));
-            return bytesToHex(digest);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    public static boolean hasTenant(String tenant) {
+        return tenant(tenant) != null;
     }
 
-    private static boolean slowEquals(String a, String b) {
-        // constant-time-ish comparison
-        if (a == null || b == null) return false;
-        int diff = a.length() ^ b.length();
-        for (int i = 0; i < Math.min(a.length(), b.length()); i++) {
-            diff |= a.charAt(i) ^ b.charAt(i);
-        }
-        return diff == 0;
+    public static String getLogs() {
+        return DEFAULT.getLogs();
+    }
+
+    /** GET_LOGS: spec (see LogQuery) plus an optional tenant=; returns how many lines were sent. */
+    public static int queryLogs(String spec, Consumer<String> sink) throws IOException {
+        Scoped s = scoped(spec);
+        return s.shard().queryLogs(s.spec(), sink);
+    }
+
+    public static long countLogs(String spec) throws IOException {
+        Scoped s = scoped(spec);
+        return s.shard().countLogs(s.spec());
+    }
+
+    /** REPORT: spec (see ActivityRollups) plus an optional tenant=; returns the row count. */
+    public static int report(String spec, Consumer<String> sink) {
+        Scoped s = scoped(spec);
+        return s.shard().report(s.spec(), sink);
     }
 
-    private static String randomSalt() {
-        byte[] buf = new byte[16];
-        new SecureRandom().nextBytes(buf);
-        return bytesToHex(buf);
+    /** Logs to the default shard, for events that belong to no tenant (malformed requests). */
+    public static void logEvent(String event, String details) {
+        DEFAULT.logEvent(event, details);
     }
 
-    private static String genTempPassword() {
-        String chars = "ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz23456789";
-        SecureRandom r = new SecureRandom();
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < 10; i++) sb.append(chars.charAt(r.nextInt(chars.length())));
-        return sb.toString();
+    /** Starts a BULK_SIGNUP batch for an existing tenant (null = default). */
+    public static UserShard.BulkSignup beginBulkSignup(String tenant) {
+        UserShard shard = tenant == null ? DEFAULT : tenant(tenant);
+        if (shard == null) throw new IllegalArgumentException("Unknown or invalid tenant: " + tenant);
+        return shard.beginBulkSignup();
     }
 
-    private static String bytesToHex(byte[] arr) {
-        StringBuilder sb = new StringBuilder(arr.length * 2);
-        for (byte b : arr) sb.append(String.format("%02x", b));
-        return sb.toString();
+    public static UserShard.BulkSignup beginBulkSignup() {
+        return DEFAULT.beginBulkSignup();
     }
 
-    private static byte[] hexToBytes(String hex) {
-        int len = hex.length();
-        byte[] data = new byte[len / 2];
-        for (int i = 0; i < len; i += 2) {
-            data[i / 2] = (byte)((Character.digit(hex.charAt(i), 16) << 4)
-                    + Character.digit(hex.charAt(i+1), 16));
+    /** Forces a snapshot of the default shard, as its compactor does on a timer. */
+    static void persistUsers() throws Exception {
+        DEFAULT.persistUsers();
+    }
+
+    /** Logger and rollup counters of the default shard, plus how many tenants are open. */
+    public static String logStats() {
+        return DEFAULT.logStats() + " tenants=" + TENANTS.size() + "/" + MAX_TENANTS;
+    }
+
+    // ---------- Routing ----------
+
+    private static UserShard shardOf(String username) {
+        int slash = username.indexOf('/');
+        return slash < 0 ? DEFAULT : tenant(username.substring(0, slash));
+    }
+
+    private static String nameOf(String username) {
+        return username.substring(username.indexOf('/') + 1);
+    }
+
+    /** The tenant's shard, opened on first use; null if the name is invalid or has no folder. */
+    private static UserShard tenant(String name) {
+        UserShard shard = TENANTS.get(name);
+        if (shard != null) return shard;
+        if (!validTenantName(name)) return null;
+        Path dir = DATA_DIR.resolve(name);
+        if (!Files.isDirectory(dir)) return null;
+        // opening loads the tenant's users; only first opens wait here, open tenants never lock
+        synchronized (TENANTS) {
+            shard = TENANTS.get(name);
+            if (shard == null) {
+                if (TENANTS.size() >= MAX_TENANTS) {
+                    System.err.println("Tenant limit reached, not opening " + name);
+                    return null;
+                }
+                shard = new UserShard(dir);
+                TENANTS.put(name, shard);
+            }
+            return shard;
         }
-        return data;
     }
 
-    // simple record
-    private static class UserRecord {
-        String username, email, salt, hash, status;
-        UserRecord(String u, String e, String s, String h, String st) {
-            this.username = u; this.email = e; this.salt = s; this.hash = h; this.status = st;
+    private static boolean validTenantName(String name) {
+        return TENANT_NAME.matcher(name).matches() && !name.equals("logs");
+    }
+
+    /** Creates the folders of the tenants listed in db.tenants; they open on first use like any other. */
+    private static void createConfiguredTenants() {
+        for (String t : System.getProperty("db.tenants", "").split(",")) {
+            String name = t.trim();
+            if (name.isEmpty()) continue;
+            if (!validTenantName(name)) {
+                System.err.println("Ignoring invalid tenant name in db.tenants: " + name);
+                continue;
+            }
+            try {
+                Files.createDirectories(DATA_DIR.resolve(name));
+            } catch (IOException e) {
+                System.err.println("Cannot create tenant folder " + name + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static UserShard existingTenant(String name) {
+        UserShard shard = tenant(name);
+        if (shard == null) throw new IllegalArgumentException("Unknown tenant: " + name);
+        return shard;
+    }
+
+    private record Scoped(UserShard shard, String spec) {}
+
+    /** Takes tenant=NAME out of a listing spec; the rest goes to the shard's own parser. */
+    private static Scoped scoped(String spec) {
+        UserShard shard = DEFAULT;
+        StringBuilder rest = new StringBuilder();
+        for (String part : spec.split(",")) {
+            String p = part.trim();
+            if (p.startsWith("tenant=")) {
+                shard = existingTenant(p.substring(7).trim());
+            } else if (!p.isEmpty()) {
+                if (rest.length() > 0) rest.append(',');
+                rest.append(p);
+            }
         }
+        return new Scoped(shard, rest.toString());
     }
 }
@@ -0,0 +1,241 @@
+package com.server.server;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Asynchronous, group-commit writer for logs.txt.
+ * Callers enqueue a finished line on a bounded lock-free queue and return immediately;
+ * one writer thread keeps the FileChannel open, drains up to batchSize lines at a time and
+ * writes them with a single call, waking up when a batch fills or flushIntervalMs passes.
+ * When the queue is full the event is dropped and counted rather than blocking a login.
+ * A line counts as written once it is in the file and, unless durability is OS, fsynced;
+ * a failed write or fsync counts its lines as lost instead.
+ */
+public class EventLogger implements Closeable {
+
+    /**
+     * When the writer fsyncs:
+     *   OS       -> never; the page cache decides (fastest, loses the tail on power failure)
+     *   BATCH    -> after every group commit
+     *   INTERVAL -> at most once per flushInterval
+     */
+    public enum Durability { OS, BATCH, INTERVAL }
+
+    private final Path file;
+    private final int capacity;
+    private final int batchSize;
+    private final long flushIntervalNanos;
+    private final Durability durability;
+
+    private final ConcurrentLinkedQueue<String> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger depth = new AtomicInteger();
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicLong enqueued = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong lost = new AtomicLong();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder syncs = new LongAdder();
+
+    private FileChannel channel; // replaced on every segment roll
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+    private Thread writer; // set by start()
+    private volatile boolean running = true;
+    private long lastSync = System.nanoTime(); // writer thread only
+    private long unsynced; // lines written since the last fsync, not yet counted
+    private long filePos;
+    private volatile LogSegments segments;
+
+    public EventLogger(Path file, int capacity, int batchSize, long flushIntervalMs, Durability durability) throws IOException {
+        this.file = file;
+        this.capacity = capacity;
+        this.batchSize = batchSize;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.durability = durability;
+        this.channel = open(file);
+        this.filePos = channel.size();
+    }
+
+    /** Reads db.log.capacity / batch / flushMs / durability, and starts the logger. */
+    public static EventLogger fromProperties(Path file) throws IOException {
+        EventLogger logger = new EventLogger(file,
+                Integer.getInteger("db.log.capacity", 65536),
+                Integer.getInteger("db.log.batch", 256),
+                Long.getLong("db.log.flushMs", 20),
+                Durability.valueOf(System.getProperty("db.log.durability", "OS").toUpperCase()));
+        logger.start();
+        return logger;
+    }
+
+    /** Starts the writer thread and closes the logger at JVM shutdown. */
+    public void start() {
+        writer = new Thread(this::writeLoop, "event-logger");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try { close(); } catch (IOException ignored) {}
+        }, "event-logger-close"));
+    }
+
+    /** Enqueues one full log line (without line separator). Returns false if it was dropped. */
+    public boolean log(String line) {
+        int d;
+        do {
+            d = depth.get();
+            if (d >= capacity) {
+                dropped.increment();
+                return false;
+            }
+        } while (!depth.compareAndSet(d, d + 1));
+        queue.offer(line);
+        enqueued.incrementAndGet();
+        if (d + 1 == batchSize) LockSupport.unpark(writer);
+        return true;
+    }
+
+    /** Waits (up to timeoutMs) until everything enqueued before this call has been written or lost. */
+    public boolean flush(long timeoutMs) {
+        long target = enqueued.get();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+        while (written.get() + lost.get() < target) {
+            if (System.nanoTime() > deadline) return false;
+            LockSupport.unpark(writer);
+            LockSupport.parkNanos(100_000);
+        }
+        return true;
+    }
+
+    public Path file() { return file; }
+
+    /** Segment store to roll and keep indexed with the byte offset of every line the writer appends. */
+    public void setSegments(LogSegments segments) { this.segments = segments; }
+
+    public String describe() {
+        return "log queued=" + depth.get()
+                + " enqueued=" + enqueued.get()
+                + " written=" + written.get()
+                + " lost=" + lost.get()
+                + " dropped=" + dropped.sum()
+                + " batches=" + batches.sum()
+                + " fsyncs=" + syncs.sum()
+                + " durability=" + durability.name().toLowerCase();
+    }
+
+    public long droppedCount() { return dropped.sum(); }
+
+    public int queuedCount() { return depth.get(); }
+
+    // ---------- Writer thread ----------
+
+    private void writeLoop() {
+        while (running || !queue.isEmpty()) {
+            int n = drainBatch();
+            if (n == 0) {
+                LockSupport.parkNanos(flushIntervalNanos);
+                if (durability == Durability.INTERVAL && unsynced > 0) sync(System.nanoTime());
+            }
+        }
+    }
+
+    private int drainBatch() {
+        int n = 0;
+        try {
+            String line;
+            while (n < batchSize && (line = queue.poll()) != null) {
+                depth.decrementAndGet();
+                byte[] bytes = (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8);
+                LogSegments segs = segments;
+                if (segs != null && segs.shouldRoll(line, filePos + buffer.position())) roll(segs);
+                if (bytes.length > buffer.remaining()) writeBuffer();
+                if (segs != null) segs.observe(line, filePos + buffer.position());
+                if (bytes.length > buffer.capacity()) {
+                    ByteBuffer big = ByteBuffer.wrap(bytes);
+                    while (big.hasRemaining()) filePos += channel.write(big);
+                } else {
+                    buffer.put(bytes);
+                }
+                n++;
+            }
+            if (n == 0) return 0;
+            writeBuffer();
+            batches.increment();
+            if (durability == Durability.OS) {
+                written.addAndGet(n);
+                return n;
+            }
+            unsynced += n;
+            long now = System.nanoTime();
+            if (durability == Durability.BATCH || now - lastSync >= flushIntervalNanos) sync(now);
+        } catch (IOException e) {
+            // same best-effort contract as the old Files.writeString path, but counted
+            lost.addAndGet(n);
+            buffer.clear();
+            try { filePos = channel.size(); } catch (IOException ignored) {}
+        }
+        return n;
+    }
+
+    /** Closes the active file, lets LogSegments move it into logs/, and starts a new one. */
+    private void roll(LogSegments segs) throws IOException {
+        writeBuffer();
+        sync(System.nanoTime());
+        channel.close();
+        try {
+            segs.seal();
+        } finally {
+            channel = open(file);
+            filePos = channel.size();
+        }
+    }
+
+    private static FileChannel open(Path file) throws IOException {
+        return FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /** fsyncs and settles the lines written since the last one as written or, if it fails, lost. */
+    private void sync(long now) {
+        try {
+            channel.force(false);
+            syncs.increment();
+            written.addAndGet(unsynced);
+        } catch (IOException e) {
+            lost.addAndGet(unsynced);
+        }
+        unsynced = 0;
+        lastSync = now;
+    }
+
+    private void writeBuffer() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) filePos += channel.write(buffer);
+        buffer.clear();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!running) return;
+        running = false;
+        if (writer != null) {
+            LockSupport.unpark(writer);
+            try {
+                writer.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (channel.isOpen()) {
+            sync(System.nanoTime());
+            channel.close();
+        }
+    }
+}
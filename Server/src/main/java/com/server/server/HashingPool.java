@@ -0,0 +1,78 @@
+package com.server.server;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded CPU pool that runs every password hash and verify.
+ * Sized to the cores so a signup/login storm cannot oversubscribe the CPU from hundreds of
+ * connection threads; when its queue is full the caller gets {@link ServerBusyException}
+ * immediately instead of waiting behind work it would time out on anyway.
+ * Bulk imports hash on a separate fork/join pool of the same size, one import at a time.
+ */
+public final class HashingPool {
+
+    private static final int THREADS = Integer.getInteger("db.hash.threads", Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE = Integer.getInteger("db.hash.queue", 256);
+
+    private static final AtomicInteger SEQ = new AtomicInteger();
+    private static final LongAdder REJECTED = new LongAdder();
+    private static final ThreadPoolExecutor POOL = new ThreadPoolExecutor(
+            THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUE),
+            r -> {
+                Thread t = new Thread(r, "hash-" + SEQ.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+    private static final ForkJoinPool BULK = new ForkJoinPool(THREADS);
+
+    private HashingPool() {}
+
+    /** Runs {@code task} on the pool and waits for it; throws ServerBusyException if the queue is full. */
+    public static <T> T call(Callable<T> task) {
+        Future<T> f;
+        long queued = System.nanoTime();
+        try {
+            f = POOL.submit(() -> {
+                Metrics.HASH_QUEUE.since(queued);
+                long start = System.nanoTime();
+                try {
+                    return task.call();
+                } finally {
+                    Metrics.HASH_RUN.since(start);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            REJECTED.increment();
+            throw new ServerBusyException("hashing queue full");
+        }
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            f.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new ServerBusyException("interrupted");
+        } catch (ExecutionException e) {
+            Throwable c = e.getCause();
+            if (c instanceof RuntimeException re) throw re;
+            throw new IllegalStateException(c);
+        }
+    }
+
+    /** Starts {@code task} on the bulk fork/join pool; join the returned task for the result. */
+    public static <T> ForkJoinTask<T> fork(Callable<T> task) {
+        return BULK.submit(task);
+    }
+
+    public static String describe() {
+        return "hash threads=" + THREADS
+                + " active=" + POOL.getActiveCount()
+                + " queued=" + POOL.getQueue().size() + "/" + QUEUE
+                + " completed=" + POOL.getCompletedTaskCount()
+                + " rejected=" + REJECTED.sum()
+                + " bulkQueued=" + BULK.getQueuedSubmissionCount();
+    }
+}
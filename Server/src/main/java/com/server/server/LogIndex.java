@@ -0,0 +1,66 @@
+package com.server.server;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+
+/**
+ * Sparse timestamp -> byte offset index over a ts,event,details log file.
+ * One entry is kept roughly every {@code stride} bytes, always at a line start, so a time-range
+ * query can seek close to its start instead of scanning from the top. ISO_LOCAL_DATE_TIME
+ * strings sort lexicographically, so keys are the raw timestamp text and nothing is parsed.
+ */
+public class LogIndex {
+
+    private final int stride;
+    private String[] keys = new String[64];
+    private long[] offsets = new long[64];
+    private int size;
+    private long lastIndexed;
+
+    public LogIndex(int stride) {
+        this.stride = stride;
+    }
+
+    /** Called for every line appended at {@code offset}; records it if the stride has been passed. */
+    public synchronized void observe(String line, long offset) {
+        if (size > 0 && offset - lastIndexed < stride) return;
+        int comma = line.indexOf(',');
+        if (comma <= 0) return;
+        add(line.substring(0, comma), offset);
+    }
+
+    /** Byte offset of an indexed line strictly before {@code from}, i.e. a safe place to start scanning. */
+    public synchronized long seek(String from) {
+        if (from == null || from.isEmpty()) return 0;
+        int lo = 0, hi = size - 1, best = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (keys[mid].compareTo(from) < 0) {
+                best = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return best < 0 ? 0 : offsets[best];
+    }
+
+    public synchronized int size() { return size; }
+
+    /** Writes the entries as "index=&lt;ts&gt; &lt;offset&gt;" lines, the format used in segment headers. */
+    public synchronized void writeTo(PrintWriter out) {
+        for (int i = 0; i < size; i++) out.println("index=" + keys[i] + " " + offsets[i]);
+    }
+
+    /** Restores one entry written by {@link #writeTo}. */
+    public synchronized void add(String key, long offset) {
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        keys[size] = key;
+        offsets[size] = offset;
+        size++;
+        lastIndexed = offset;
+    }
+}
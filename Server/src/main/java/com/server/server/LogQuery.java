@@ -0,0 +1,145 @@
+package com.server.server;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Filtered, paginated read of the segmented event log.
+ * Spec (after "GET_LOGS:" or "COUNT_LOGS:"): comma separated key=value pairs, all optional:
+ *   offset=N          skip the first N matching lines (default 0)
+ *   limit=N           return at most N lines (default 100)
+ *   from=ISO_TIME     inclusive lower bound, e.g. 2025-10-17 or 2025-10-17T17:00
+ *   to=ISO_TIME       exclusive upper bound
+ *   event=A|B         only these event types
+ */
+public class LogQuery {
+
+    public static final int DEFAULT_LIMIT = 100;
+    public static final int MAX_LIMIT = 10_000;
+
+    int offset;
+    int limit = DEFAULT_LIMIT;
+    String from;
+    String to;
+    Set<String> events;
+
+    public static LogQuery parse(String spec) {
+        LogQuery q = new LogQuery();
+        for (String part : spec.split(",")) {
+            String p = part.trim();
+            if (p.isEmpty()) continue;
+            int eq = p.indexOf('=');
+            if (eq <= 0) throw new IllegalArgumentException("Bad parameter: " + p);
+            String key = p.substring(0, eq).trim();
+            String value = p.substring(eq + 1).trim();
+            switch (key) {
+                case "offset" -> q.offset = Math.max(0, Integer.parseInt(value));
+                case "limit" -> q.limit = Math.min(MAX_LIMIT, Math.max(0, Integer.parseInt(value)));
+                case "from" -> q.from = value;
+                case "to" -> q.to = value;
+                case "event" -> {
+                    q.events = new HashSet<>();
+                    for (String e : value.split("\\|")) q.events.add(e.trim());
+                }
+                default -> throw new IllegalArgumentException("Unknown parameter: " + key);
+            }
+        }
+        return q;
+    }
+
+    /** True if the line passes the time and event filters. */
+    boolean matches(String line) {
+        int c1 = line.indexOf(',');
+        if (c1 <= 0) return false;
+        String ts = line.substring(0, c1);
+        if (from != null && ts.compareTo(from) < 0) return false;
+        if (to != null && ts.compareTo(to) >= 0) return false;
+        if (events != null) {
+            int c2 = line.indexOf(',', c1 + 1);
+            String event = c2 < 0 ? line.substring(c1 + 1) : line.substring(c1 + 1, c2);
+            return events.contains(event);
+        }
+        return true;
+    }
+
+    /** True once a line is past the upper bound, so an ordered scan can stop. */
+    boolean pastEnd(String line) {
+        return to != null && line.compareTo(to) >= 0;
+    }
+
+    /** Segment has no line inside [from, to). */
+    boolean outside(LogSegments.Segment seg) {
+        if (seg.lines == 0) return true;
+        return (from != null && seg.maxTs.compareTo(from) < 0) || (to != null && seg.minTs.compareTo(to) >= 0);
+    }
+
+    /** Every line of the segment is inside [from, to), so its header counts are exact for this query. */
+    boolean covers(LogSegments.Segment seg) {
+        return (from == null || seg.minTs.compareTo(from) >= 0) && (to == null || seg.maxTs.compareTo(to) < 0);
+    }
+
+    /**
+     * Streams matching lines, oldest segment first, to {@code sink} and returns how many were sent.
+     * Segments outside the time range, or without any of the requested events, are never opened;
+     * fully covered segments whose match count fits inside the remaining offset are skipped whole.
+     */
+    public int run(LogSegments.View view, Consumer<String> sink) throws IOException {
+        int skip = offset, emitted = 0;
+        for (LogSegments.Segment seg : segments(view)) {
+            if (emitted >= limit) break;
+            if (outside(seg)) continue;
+            long matching = seg.count(events);
+            if (matching == 0) continue;
+            if (covers(seg) && matching <= skip) {
+                skip -= (int) matching;
+                continue;
+            }
+            try (BufferedReader br = seg.reader(from, seg == view.active() ? view.activeChannel() : null)) {
+                String line;
+                while (emitted < limit && (line = br.readLine()) != null) {
+                    if (pastEnd(line)) break;
+                    if (!matches(line)) continue;
+                    if (skip > 0) {
+                        skip--;
+                        continue;
+                    }
+                    sink.accept(line);
+                    emitted++;
+                }
+            }
+        }
+        return emitted;
+    }
+
+    /** Number of matching lines; headers answer fully covered segments, the rest are scanned. */
+    public long count(LogSegments.View view) throws IOException {
+        long total = 0;
+        for (LogSegments.Segment seg : segments(view)) {
+            if (outside(seg)) continue;
+            long matching = seg.count(events);
+            if (matching == 0) continue;
+            if (covers(seg)) {
+                total += matching;
+                continue;
+            }
+            try (BufferedReader br = seg.reader(from, seg == view.active() ? view.activeChannel() : null)) {
+                String line;
+                while ((line = br.readLine()) != null) {
+                    if (pastEnd(line)) break;
+                    if (matches(line)) total++;
+                }
+            }
+        }
+        return total;
+    }
+
+    private static List<LogSegments.Segment> segments(LogSegments.View view) {
+        List<LogSegments.Segment> all = new ArrayList<>(view.closed());
+        if (view.activeChannel() != null) all.add(view.active());
+        return all;
+    }
+}
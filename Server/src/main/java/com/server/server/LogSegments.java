@@ -0,0 +1,346 @@
+package com.server.server;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Segmented storage for the ts,event,details event log.
+ *
+ * logs.txt                     -> active segment, appended by EventLogger
+ * logs/logs-&lt;firstTs&gt;.txt[.gz] -> closed segments, rolled by size or when the day changes
+ * logs/logs-&lt;firstTs&gt;.hdr       -> header of a closed segment:
+ *                                 min=, max=, lines=, count.&lt;EVENT&gt;= and index= lines
+ *
+ * Headers let time-range and count queries skip or answer whole segments without reading them;
+ * closed segments older than a few days are gzipped in the background. A gzipped segment's .txt
+ * is only deleted once no open View can still read it.
+ */
+public class LogSegments {
+
+    private final Path active;
+    private final Path dir;
+    private final long maxBytes;
+    private final int stride;
+
+    private volatile List<Segment> closed;
+    private Segment current; // guarded by this
+    private int openViews; // guarded by this
+    private final List<Path> retired = new ArrayList<>(); // guarded by this: replaced by their .gz
+
+    public LogSegments(Path active, Path dir, long maxBytes, int stride) throws IOException {
+        this.active = active;
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+        this.stride = stride;
+        Files.createDirectories(dir);
+        this.closed = loadClosed();
+        this.current = Segment.scan(active, stride);
+    }
+
+    /** Reads db.log.segmentBytes and db.log.indexStride. */
+    public static LogSegments fromProperties(Path active) throws IOException {
+        return new LogSegments(active, active.resolveSibling("logs"),
+                Long.getLong("db.log.segmentBytes", 16L * 1024 * 1024),
+                Integer.getInteger("db.log.indexStride", 64 * 1024));
+    }
+
+    // ---------- Writer side (EventLogger thread) ----------
+
+    /** True if appending {@code line} at {@code offset} should start a new segment first. */
+    public synchronized boolean shouldRoll(String line, long offset) {
+        if (offset == 0 || current.minTs == null) return false;
+        return offset >= maxBytes || !line.regionMatches(0, current.minTs, 0, 10);
+    }
+
+    public synchronized void observe(String line, long offset) {
+        current.add(line, offset);
+    }
+
+    /**
+     * Moves the (already closed and forced) active file into logs/ with its header,
+     * and starts a fresh, empty active segment.
+     */
+    public synchronized void seal() throws IOException {
+        if (current.lines == 0) return;
+        String base = "logs-" + current.minTs.replace(':', '-');
+        Path target = dir.resolve(base + ".txt");
+        for (int i = 1; Files.exists(target); i++) target = dir.resolve(base + "-" + i + ".txt");
+        Files.move(active, target, StandardCopyOption.ATOMIC_MOVE);
+        current.path = target;
+        current.writeHeader(headerOf(target));
+
+        List<Segment> next = new ArrayList<>(closed);
+        next.add(current);
+        closed = List.copyOf(next);
+        current = new Segment(active, stride);
+    }
+
+    // ---------- Query side ----------
+
+    /**
+     * Consistent view for one query: the closed segments plus an open channel on the active file,
+     * taken together so a concurrent roll can neither hide nor duplicate a segment.
+     */
+    public synchronized View open() throws IOException {
+        FileChannel ch = Files.exists(active) ? FileChannel.open(active, StandardOpenOption.READ) : null;
+        openViews++;
+        return new View(this, closed, current.copy(), ch);
+    }
+
+    /** Segments as they were when the view was opened; close it to let retired files go. */
+    public static final class View implements Closeable {
+        private final LogSegments owner;
+        private final List<Segment> closed;
+        private final Segment active;
+        private final FileChannel activeChannel;
+        private boolean released;
+
+        private View(LogSegments owner, List<Segment> closed, Segment active, FileChannel activeChannel) {
+            this.owner = owner;
+            this.closed = closed;
+            this.active = active;
+            this.activeChannel = activeChannel;
+        }
+
+        public List<Segment> closed() { return closed; }
+
+        public Segment active() { return active; }
+
+        public FileChannel activeChannel() { return activeChannel; }
+
+        @Override
+        public void close() throws IOException {
+            synchronized (owner) {
+                if (released) return;
+                released = true;
+                owner.openViews--;
+                owner.deleteRetired();
+            }
+            if (activeChannel != null) activeChannel.close();
+        }
+    }
+
+    // ---------- Compression ----------
+
+    /** Gzips closed segments whose newest line is older than {@code days} days, checking hourly. */
+    public void startCompression(int days) {
+        if (days <= 0) return;
+        ScheduledExecutorService bg = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "log-segments");
+            t.setDaemon(true);
+            return t;
+        });
+        bg.scheduleWithFixedDelay(() -> {
+            try {
+                compressOlderThan(LocalDate.now().minusDays(days).toString());
+            } catch (IOException e) {
+                System.err.println("Log compression failed: " + e.getMessage());
+            }
+        }, 1, 60, TimeUnit.MINUTES);
+    }
+
+    void compressOlderThan(String cutoffDay) throws IOException {
+        for (Segment s : closed) {
+            if (s.compressed || s.maxTs.compareTo(cutoffDay) >= 0) continue;
+            Path gz = s.path.resolveSibling(s.path.getFileName() + ".gz");
+            Path tmp = s.path.resolveSibling(s.path.getFileName() + ".gz.tmp");
+            try (InputStream in = Files.newInputStream(s.path);
+                 OutputStream out = new GZIPOutputStream(Files.newOutputStream(tmp))) {
+                in.transferTo(out);
+            }
+            Files.move(tmp, gz, StandardCopyOption.ATOMIC_MOVE);
+            Segment z = s.copy();
+            z.path = gz;
+            z.compressed = true;
+            synchronized (this) {
+                List<Segment> next = new ArrayList<>(closed);
+                next.set(next.indexOf(s), z);
+                closed = List.copyOf(next);
+                // a View opened before the swap may still read the .txt
+                retired.add(s.path);
+                deleteRetired();
+            }
+        }
+    }
+
+    /** Deletes the .txt files replaced by .gz, once no View is open. Caller holds this. */
+    private void deleteRetired() {
+        if (openViews > 0) return;
+        for (Path p : retired) {
+            try {
+                Files.deleteIfExists(p);
+            } catch (IOException e) {
+                System.err.println("Could not delete " + p + ": " + e.getMessage());
+            }
+        }
+        retired.clear();
+    }
+
+    // ---------- Loading ----------
+
+    private List<Segment> loadClosed() throws IOException {
+        List<Segment> list = new ArrayList<>();
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "logs-*.hdr")) {
+            for (Path hdr : ds) {
+                String base = hdr.getFileName().toString().replaceFirst("\\.hdr$", "");
+                Path txt = dir.resolve(base + ".txt");
+                Path gz = dir.resolve(base + ".txt.gz");
+                if (Files.exists(gz)) {
+                    Files.deleteIfExists(txt); // compression finished but the original was not yet removed
+                    list.add(Segment.readHeader(hdr, gz, true, stride));
+                } else if (Files.exists(txt)) {
+                    list.add(Segment.readHeader(hdr, txt, false, stride));
+                }
+            }
+        }
+        // a roll that died between moving the file and writing its header
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "logs-*.txt")) {
+            for (Path txt : ds) {
+                Path hdr = headerOf(txt);
+                if (Files.exists(hdr)) continue;
+                Segment s = Segment.scan(txt, stride);
+                if (s.lines == 0) continue;
+                s.writeHeader(hdr);
+                list.add(s);
+            }
+        }
+        list.sort(Comparator.comparing((Segment s) -> s.minTs));
+        return List.copyOf(list);
+    }
+
+    private static Path headerOf(Path segment) {
+        String name = segment.getFileName().toString().replaceFirst("\\.txt(\\.gz)?$", "");
+        return segment.resolveSibling(name + ".hdr");
+    }
+
+    /** Header and index of one segment. The active segment's instance is mutated by the writer. */
+    public static final class Segment {
+        Path path;
+        boolean compressed;
+        String minTs, maxTs;
+        long lines;
+        final Map<String, Long> counts = new HashMap<>();
+        final LogIndex index;
+
+        Segment(Path path, int stride) {
+            this(path, new LogIndex(stride));
+        }
+
+        private Segment(Path path, LogIndex index) {
+            this.path = path;
+            this.index = index;
+        }
+
+        void add(String line, long offset) {
+            int c1 = line.indexOf(',');
+            if (c1 <= 0) return;
+            String ts = line.substring(0, c1);
+            if (minTs == null || ts.compareTo(minTs) < 0) minTs = ts;
+            if (maxTs == null || ts.compareTo(maxTs) > 0) maxTs = ts;
+            int c2 = line.indexOf(',', c1 + 1);
+            counts.merge(c2 < 0 ? line.substring(c1 + 1) : line.substring(c1 + 1, c2), 1L, Long::sum);
+            lines++;
+            index.observe(line, offset);
+        }
+
+        /** Lines whose event is in {@code events} (all lines when null). */
+        long count(Set<String> events) {
+            if (events == null) return lines;
+            long n = 0;
+            for (String e : events) n += counts.getOrDefault(e, 0L);
+            return n;
+        }
+
+        /** Reader positioned at the first line that could be at or after {@code from}. */
+        BufferedReader reader(String from, FileChannel activeChannel) throws IOException {
+            InputStream in;
+            if (activeChannel != null) {
+                activeChannel.position(index.seek(from));
+                in = Channels.newInputStream(activeChannel);
+            } else if (compressed) {
+                in = new GZIPInputStream(Files.newInputStream(path), 64 * 1024);
+            } else {
+                FileChannel ch = FileChannel.open(path, StandardOpenOption.READ);
+                ch.position(index.seek(from));
+                in = Channels.newInputStream(ch);
+            }
+            return new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8), 64 * 1024);
+        }
+
+        Segment copy() {
+            Segment s = new Segment(path, index);
+            s.compressed = compressed;
+            s.minTs = minTs;
+            s.maxTs = maxTs;
+            s.lines = lines;
+            s.counts.putAll(counts);
+            return s;
+        }
+
+        void writeHeader(Path hdr) throws IOException {
+            Path tmp = hdr.resolveSibling(hdr.getFileName() + ".tmp");
+            try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(tmp, StandardCharsets.UTF_8))) {
+                out.println("min=" + minTs);
+                out.println("max=" + maxTs);
+                out.println("lines=" + lines);
+                for (Map.Entry<String, Long> e : new TreeMap<>(counts).entrySet()) {
+                    out.println("count." + e.getKey() + "=" + e.getValue());
+                }
+                index.writeTo(out);
+            }
+            Files.move(tmp, hdr, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+
+        static Segment readHeader(Path hdr, Path data, boolean compressed, int stride) throws IOException {
+            Segment s = new Segment(data, stride);
+            s.compressed = compressed;
+            for (String l : Files.readAllLines(hdr, StandardCharsets.UTF_8)) {
+                int eq = l.indexOf('=');
+                if (eq <= 0) continue;
+                String k = l.substring(0, eq), v = l.substring(eq + 1);
+                if (k.equals("min")) s.minTs = v;
+                else if (k.equals("max")) s.maxTs = v;
+                else if (k.equals("lines")) s.lines = Long.parseLong(v);
+                else if (k.startsWith("count.")) s.counts.put(k.substring(6), Long.parseLong(v));
+                else if (k.equals("index")) {
+                    int sp = v.lastIndexOf(' ');
+                    s.index.add(v.substring(0, sp), Long.parseLong(v.substring(sp + 1)));
+                }
+            }
+            return s;
+        }
+
+        /** Builds header and index for an existing file in one pass, tracking exact byte offsets. */
+        static Segment scan(Path file, int stride) throws IOException {
+            Segment s = new Segment(file, stride);
+            if (Files.notExists(file)) return s;
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 64 * 1024)) {
+                ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+                long pos = 0, lineStart = 0;
+                int b;
+                while ((b = in.read()) != -1) {
+                    pos++;
+                    if (b == '\n') {
+                        s.add(line.toString(StandardCharsets.UTF_8), lineStart);
+                        line.reset();
+                        lineStart = pos;
+                    } else if (pos - lineStart <= 96) {
+                        // timestamp and event type are all the header needs
+                        line.write(b);
+                    }
+                }
+            }
+            return s;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.server.server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rate limit for LOGIN attempts, checked before any password hashing.
+ * Two token buckets per attempt: one for the username, one for the remote address (generous,
+ * since a whole classroom can sit behind one NAT address).
+ *
+ * Each bucket is a single AtomicLong holding its "theoretical arrival time" (GCRA form of a token
+ * bucket): taking a token moves it one interval forward with a CAS, and refill is implicit in
+ * the clock catching up, so there is no lock and no refill timer. A bucket whose time is in the
+ * past is full and carries no information, which is exactly what the idle sweeper evicts.
+ * Sweeping is never done on the login path: when the table is full a new key goes untracked
+ * and at most one early sweep per second is handed to the sweeper thread.
+ */
+public class LoginThrottle {
+
+    private final Limit user;
+    private final Limit ip;
+    private final int maxKeys;
+    private final ConcurrentHashMap<String, AtomicLong> buckets = new ConcurrentHashMap<>();
+    private final AtomicBoolean sweeping = new AtomicBoolean();
+    private final AtomicLong lastSweep = new AtomicLong(System.nanoTime());
+    private volatile ScheduledExecutorService sweeper; // null when not started by fromProperties
+
+    private static final long EARLY_SWEEP_GAP = TimeUnit.SECONDS.toNanos(1);
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder throttledUser = new LongAdder();
+    private final LongAdder throttledIp = new LongAdder();
+    private final LongAdder untracked = new LongAdder();
+    private final LongAdder evicted = new LongAdder();
+
+    /** burst tokens, refilled at perMinute. */
+    record Limit(int burst, long intervalNanos) {
+        static Limit of(int burst, int perMinute) {
+            return new Limit(burst, TimeUnit.MINUTES.toNanos(1) / Math.max(1, perMinute));
+        }
+    }
+
+    public LoginThrottle(Limit user, Limit ip, int maxKeys) {
+        this.user = user;
+        this.ip = ip;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Reads server.throttle.userBurst (5), userPerMin (30), ipBurst (60), ipPerMin (600),
+     * maxKeys (100000); server.throttle=false turns it off. Starts the idle sweeper.
+     */
+    public static LoginThrottle fromProperties() {
+        if (!Boolean.parseBoolean(System.getProperty("server.throttle", "true"))) return null;
+        LoginThrottle t = new LoginThrottle(
+                Limit.of(Integer.getInteger("server.throttle.userBurst", 5), Integer.getInteger("server.throttle.userPerMin", 30)),
+                Limit.of(Integer.getInteger("server.throttle.ipBurst", 60), Integer.getInteger("server.throttle.ipPerMin", 600)),
+                Integer.getInteger("server.throttle.maxKeys", 100_000));
+        t.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread th = new Thread(r, "login-throttle");
+            th.setDaemon(true);
+            return th;
+        });
+        t.sweeper.scheduleWithFixedDelay(t::sweep, 30, 30, TimeUnit.SECONDS);
+        return t;
+    }
+
+    /** Takes one token from the address bucket and one from the username bucket. */
+    public boolean tryAcquire(String username, String address) {
+        long now = System.nanoTime();
+        if (address != null && !take("ip:" + address, ip, now)) {
+            throttledIp.increment();
+            return false;
+        }
+        if (!take("user:" + username, user, now)) {
+            throttledUser.increment();
+            return false;
+        }
+        allowed.increment();
+        return true;
+    }
+
+    private boolean take(String key, Limit limit, long now) {
+        AtomicLong b = buckets.get(key);
+        if (b == null) {
+            if (buckets.size() >= maxKeys) {
+                // don't grow without bound, and don't scan here either; the other key still limits
+                requestSweep(now);
+                untracked.increment();
+                return true;
+            }
+            b = buckets.computeIfAbsent(key, k -> new AtomicLong(now));
+        }
+        long window = limit.burst() * limit.intervalNanos();
+        while (true) {
+            long tat = b.get();
+            long next = Math.max(tat, now) + limit.intervalNanos();
+            if (next - now > window) return false;
+            if (b.compareAndSet(tat, next)) return true;
+        }
+    }
+
+    /** Asks the sweeper thread for an early sweep, unless one ran or was asked for within the last second. */
+    private void requestSweep(long now) {
+        ScheduledExecutorService s = sweeper;
+        long last = lastSweep.get();
+        if (s == null || now - last < EARLY_SWEEP_GAP || !lastSweep.compareAndSet(last, now)) return;
+        s.execute(this::sweep);
+    }
+
+    /** Drops full (idle) buckets. */
+    void sweep() {
+        if (!sweeping.compareAndSet(false, true)) return;
+        try {
+            long now = System.nanoTime();
+            lastSweep.set(now);
+            buckets.forEach((k, b) -> {
+                long tat = b.get();
+                if (tat - now <= 0 && buckets.remove(k, b)) evicted.increment();
+            });
+        } finally {
+            sweeping.set(false);
+        }
+    }
+
+    public String describe() {
+        return "throttle keys=" + buckets.size() + "/" + maxKeys
+                + " allowed=" + allowed.sum()
+                + " throttledUser=" + throttledUser.sum()
+                + " throttledIp=" + throttledIp.sum()
+                + " untracked=" + untracked.sum()
+                + " evicted=" + evicted.sum();
+    }
+}
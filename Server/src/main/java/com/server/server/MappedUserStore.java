@@ -0,0 +1,295 @@
+package com.server.server;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.function.Consumer;
+
+/**
+ * Binary, memory-mapped alternative to the users.txt snapshot (-Ddb.store=mapped).
+ *
+ * users.db layout (big-endian):
+ *   header   64 bytes: magic "EDUU", version, record size, record count, index slots
+ *   index    slots x int: record number + 1, 0 = empty; open addressing, linear probing on FNV-1a(username)
+ *   records  count x 256 bytes, each field a length byte followed by UTF-8 text:
+ *            username 40 | email 104 | salt 33 | hash 65 | status 14
+ *
+ * Opening only maps the file, so startup does not depend on the user count, and a lookup touches
+ * one index page plus one record page. Records are updated in place; the index is kept at most half
+ * full and the file is rebuilt at double capacity when it fills. Writes reach disk on {@link #force()}.
+ */
+public class MappedUserStore implements Closeable {
+
+    private static final int MAGIC = 0x45445555; // "EDUU"
+    private static final int VERSION = 1;
+    private static final int HEADER = 64;
+    static final int RECORD = 256;
+
+    // field offsets inside a record; each field is [len][bytes...]
+    private static final int USERNAME = 0, USERNAME_W = 40;
+    private static final int EMAIL = 40, EMAIL_W = 104;
+    private static final int SALT = 144, SALT_W = 33;
+    private static final int HASH = 177, HASH_W = 65;
+    private static final int STATUS = 242, STATUS_W = 14;
+
+    private final Path file;
+    private FileChannel channel;
+    private volatile Table table; // swapped whole by grow(), so a reader never mixes two mappings
+    private volatile int count;
+
+    /** One mapping of the file and the index size it was built with. */
+    private record Table(MappedByteBuffer map, int slots) {}
+
+    private MappedUserStore(Path file) throws IOException {
+        this.file = file;
+        remap();
+    }
+
+    /** Opens an existing store, or creates an empty one. */
+    public static MappedUserStore open(Path file) throws IOException {
+        if (Files.notExists(file)) create(file, 1024).close();
+        return new MappedUserStore(file);
+    }
+
+    // ---------- Reads (lock-free, absolute buffer access only) ----------
+
+    /** {username, email, salt, hash, status}, or null. */
+    public String[] get(String username) {
+        Table t = table;
+        MappedByteBuffer m = t.map();
+        int rec = find(m, t.slots(), username.getBytes(StandardCharsets.UTF_8));
+        if (rec < 0) return null;
+        int base = recordOffset(t.slots(), rec);
+        return new String[] {
+                field(m, base + USERNAME), field(m, base + EMAIL), field(m, base + SALT),
+                field(m, base + HASH), field(m, base + STATUS)
+        };
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /** Calls back with {username, email, status} for every record, in insertion order. */
+    public void forEachSummary(Consumer<String[]> sink) {
+        int n = count; // before the table: a record is in every mapping published before count covers it
+        Table t = table;
+        MappedByteBuffer m = t.map();
+        int s = t.slots();
+        for (int i = 0; i < n; i++) {
+            int base = recordOffset(s, i);
+            sink.accept(new String[] { field(m, base + USERNAME), field(m, base + EMAIL), field(m, base + STATUS) });
+        }
+    }
+
+    /** True if the text columns fit the fixed record widths. */
+    public static boolean fits(String username, String email, String salt, String hash, String status) {
+        return len(username) < USERNAME_W && len(email) < EMAIL_W && len(salt) < SALT_W
+                && len(hash) < HASH_W && len(status) < STATUS_W;
+    }
+
+    // ---------- Writes ----------
+
+    /** Inserts or overwrites the record for {@code username}. */
+    public synchronized void put(String username, String email, String salt, String hash, String status) throws IOException {
+        if (!fits(username, email, salt, hash, status)) {
+            throw new IllegalArgumentException("Record too wide for users.db: " + username);
+        }
+        byte[] key = username.getBytes(StandardCharsets.UTF_8);
+        Table t = table;
+        int rec = find(t.map(), t.slots(), key);
+        if (rec < 0) {
+            if ((count + 1) * 2 > t.slots()) {
+                grow();
+                t = table;
+            }
+            MappedByteBuffer m = t.map();
+            rec = count;
+            writeRecord(m, recordOffset(t.slots(), rec), username, email, salt, hash, status);
+            m.putInt(HEADER + probeFor(m, t.slots(), key) * 4, rec + 1);
+            count = rec + 1;
+            m.putInt(12, count);
+        } else {
+            writeRecord(t.map(), recordOffset(t.slots(), rec), username, email, salt, hash, status);
+        }
+    }
+
+    /** Flushes dirty pages to disk. */
+    public synchronized void force() {
+        table.map().force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        table.map().force();
+        channel.close();
+    }
+
+    // ---------- Conversion ----------
+
+    /** Builds users.db from a users.txt snapshot (username,email,salt,hash,status per line). */
+    public static int convert(Path csv, Path db) throws IOException {
+        Path tmp = db.resolveSibling(db.getFileName() + ".tmp");
+        Files.deleteIfExists(tmp);
+        long lines;
+        try (var s = Files.lines(csv, StandardCharsets.UTF_8)) {
+            lines = s.count();
+        }
+        int n = 0;
+        try (MappedUserStore out = create(tmp, (int) Math.max(1024, lines));
+             BufferedReader br = Files.newBufferedReader(csv, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                String[] p = line.split(",", -1);
+                if (p.length < 5) continue;
+                out.put(p[0], p[1], p[2], p[3], p[4]);
+                n++;
+            }
+        }
+        Files.move(tmp, db, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return n;
+    }
+
+    /** Usage: MappedUserStore &lt;users.txt&gt; &lt;users.db&gt; */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("usage: MappedUserStore <users.txt> <users.db>");
+            System.exit(2);
+        }
+        long t0 = System.nanoTime();
+        int n = convert(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println("Converted " + n + " users in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+    }
+
+    // ---------- Internals ----------
+
+    /** Empty store sized for {@code expected} records. */
+    private static MappedUserStore create(Path file, int expected) throws IOException {
+        int slots = Integer.highestOneBit(Math.max(16, expected) * 2 - 1) << 1;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            MappedByteBuffer m = ch.map(FileChannel.MapMode.READ_WRITE, 0, fileSize(slots));
+            m.putInt(0, MAGIC);
+            m.putInt(4, VERSION);
+            m.putInt(8, RECORD);
+            m.putInt(12, 0);
+            m.putInt(16, slots);
+            m.force();
+        }
+        return new MappedUserStore(file);
+    }
+
+    private void remap() throws IOException {
+        if (channel != null) channel.close();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+        if (m.getInt(0) != MAGIC || m.getInt(4) != VERSION || m.getInt(8) != RECORD) {
+            channel.close();
+            throw new IOException("Not a users.db file: " + file);
+        }
+        count = m.getInt(12);
+        table = new Table(m, m.getInt(16));
+    }
+
+    /**
+     * Rewrites the file at double capacity. Readers keep using the old table until the swap; its
+     * mapping stays valid after the file is replaced and is only unmapped once nothing holds it.
+     */
+    private void grow() throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".grow");
+        Files.deleteIfExists(tmp);
+        Table t = table;
+        try (MappedUserStore bigger = create(tmp, t.slots())) {
+            MappedByteBuffer m = t.map();
+            for (int i = 0; i < count; i++) {
+                int base = recordOffset(t.slots(), i);
+                bigger.put(field(m, base + USERNAME), field(m, base + EMAIL), field(m, base + SALT),
+                        field(m, base + HASH), field(m, base + STATUS));
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        remap();
+    }
+
+    private static long fileSize(int slots) {
+        long size = HEADER + (long) slots * 4 + (long) (slots / 2) * RECORD;
+        if (size > Integer.MAX_VALUE) throw new IllegalStateException("users.db would exceed 2 GB");
+        return size;
+    }
+
+    private static int recordOffset(int slots, int rec) {
+        return HEADER + slots * 4 + rec * RECORD;
+    }
+
+    /** Record number for the key, or -1. */
+    private static int find(MappedByteBuffer m, int slots, byte[] key) {
+        int mask = slots - 1;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            int v = m.getInt(HEADER + i * 4);
+            if (v == 0) return -1;
+            if (keyEquals(m, recordOffset(slots, v - 1) + USERNAME, key)) return v - 1;
+        }
+    }
+
+    /** First empty slot on the key's probe sequence. */
+    private static int probeFor(MappedByteBuffer m, int slots, byte[] key) {
+        int mask = slots - 1;
+        int i = hash(key) & mask;
+        while (m.getInt(HEADER + i * 4) != 0) i = (i + 1) & mask;
+        return i;
+    }
+
+    private static int hash(byte[] key) {
+        int h = 0x811c9dc5;
+        for (byte b : key) {
+            h ^= b & 0xff;
+            h *= 0x01000193;
+        }
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean keyEquals(MappedByteBuffer m, int at, byte[] key) {
+        if ((m.get(at) & 0xff) != key.length) return false;
+        for (int i = 0; i < key.length; i++) {
+            if (m.get(at + 1 + i) != key[i]) return false;
+        }
+        return true;
+    }
+
+    private static String field(MappedByteBuffer m, int at) {
+        byte[] b = new byte[m.get(at) & 0xff];
+        m.get(at + 1, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    private static void writeRecord(MappedByteBuffer m, int base, String u, String e, String s, String h, String st) {
+        byte[] rec = new byte[RECORD];
+        putField(rec, USERNAME, u);
+        putField(rec, EMAIL, e);
+        putField(rec, SALT, s);
+        putField(rec, HASH, h);
+        putField(rec, STATUS, st);
+        m.put(base, rec);
+    }
+
+    private static void putField(byte[] rec, int at, String value) {
+        byte[] b = value.getBytes(StandardCharsets.UTF_8);
+        rec[at] = (byte) b.length;
+        System.arraycopy(b, 0, rec, at + 1, b.length);
+    }
+
+    private static int len(String s) {
+        return s.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    @Override
+    public String toString() {
+        int slots = table.slots();
+        return "users.db count=" + count + " slots=" + slots + " bytes=" + fileSize(slots);
+    }
+}
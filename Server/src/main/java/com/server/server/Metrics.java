@@ -0,0 +1,114 @@
+package com.server.server;
+
+import java.io.PrintWriter;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histograms for the auth server, reported by the STATS command.
+ *   cmd.&lt;COMMAND&gt; -> whole request, per command (SIGNUP, LOGIN, GET_USERS, ...)
+ *   lock.wait     -> time spent waiting for a DatabaseHelper stripe lock
+ *   hash.queue    -> time a hash waited for a HashingPool thread
+ *   hash.run      -> time spent hashing/verifying
+ * Recording is a couple of atomic increments; nothing allocates after a histogram exists.
+ */
+public final class Metrics {
+
+    private static final Map<String, Histogram> HISTOGRAMS = new ConcurrentHashMap<>();
+
+    public static final Histogram LOCK_WAIT = histogram("lock.wait");
+    public static final Histogram HASH_QUEUE = histogram("hash.queue");
+    public static final Histogram HASH_RUN = histogram("hash.run");
+
+    private Metrics() {}
+
+    public static Histogram histogram(String name) {
+        return HISTOGRAMS.computeIfAbsent(name, k -> new Histogram());
+    }
+
+    /** One line per histogram ("name count=.. p50=..us p95=.. p99=.. max=.."), sorted by name. */
+    public static void report(PrintWriter out) {
+        for (Map.Entry<String, Histogram> e : new TreeMap<>(HISTOGRAMS).entrySet()) {
+            Histogram h = e.getValue();
+            if (h.count() == 0) continue;
+            out.println(e.getKey() + " " + h.summary());
+        }
+    }
+
+    /**
+     * Log-bucketed histogram of nanosecond values: 8 sub-buckets per power of two, so any
+     * reported percentile is at most 12.5% above the true value.
+     */
+    public static final class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public void record(long nanos) {
+            if (nanos < 0) nanos = 0;
+            buckets.incrementAndGet(bucketOf(nanos));
+            count.increment();
+            sum.add(nanos);
+            long m;
+            while (nanos > (m = max.get()) && !max.compareAndSet(m, nanos)) { /* retry */ }
+        }
+
+        /** Records the time since {@code startNanos} (a System.nanoTime() value). */
+        public void since(long startNanos) {
+            record(System.nanoTime() - startNanos);
+        }
+
+        public long count() {
+            return count.sum();
+        }
+
+        /** Upper bound of the bucket holding the q-quantile, capped at the observed max. */
+        public long percentile(double q) {
+            long total = count.sum();
+            if (total == 0) return 0;
+            long rank = Math.max(1, (long) Math.ceil(q * total));
+            long seen = 0;
+            for (int b = 0; b < buckets.length(); b++) {
+                seen += buckets.get(b);
+                if (seen >= rank) return Math.min(upperBound(b), max.get());
+            }
+            return max.get();
+        }
+
+        String summary() {
+            long n = count.sum();
+            return "count=" + n
+                    + " mean=" + micros(n == 0 ? 0 : sum.sum() / n)
+                    + " p50=" + micros(percentile(0.50))
+                    + " p95=" + micros(percentile(0.95))
+                    + " p99=" + micros(percentile(0.99))
+                    + " max=" + micros(max.get());
+        }
+
+        private static int bucketOf(long v) {
+            if (v < SUB) return (int) v;
+            int exp = 63 - Long.numberOfLeadingZeros(v);
+            int sub = (int) (v >>> (exp - SUB_BITS)) & (SUB - 1);
+            return (exp - SUB_BITS + 1) * SUB + sub;
+        }
+
+        private static long upperBound(int b) {
+            if (b < SUB) return b;
+            int exp = b / SUB + SUB_BITS - 1;
+            long sub = b % SUB;
+            return ((SUB + sub + 1) << (exp - SUB_BITS)) - 1;
+        }
+
+        private static String micros(long nanos) {
+            return nanos < 10_000 ? String.format("%.1fus", nanos / 1000.0) : (nanos / 1000) + "us";
+        }
+    }
+}
@@ -0,0 +1,451 @@
+package com.server.server;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Selector-based front end for the auth protocol on port 6000.
+ * A single event-loop thread accepts sockets and frames request lines without blocking;
+ * the handle* logic in Server (and so every DatabaseHelper call) runs on a bounded worker pool.
+ * Wire behaviour matches the threaded front end, including the PIPELINE persistent mode
+ * and the binary framing selected by a leading {@link BinaryProtocol#MAGIC} byte.
+ *
+ * One-shot replies stream: the worker hands the loop 8 KB chunks as the handler writes them and
+ * waits while WINDOW of them are still unsent, so a GET_USERS over a large store holds a bounded
+ * amount of memory per connection. Pipelined and binary replies are still built whole, since
+ * their header carries the line count or byte length; the paged GET_USERS: form bounds those.
+ */
+public class NioServer {
+
+    private static final int MAX_LINE = 8192;
+    private static final int CHUNK = 8192;
+    private static final int WINDOW = 8; // unsent chunks per streaming reply
+
+    private final int port;
+    private final ThreadPoolExecutor workers;
+    // work handed back from the worker pool; only the loop thread touches channels
+    private final Queue<Runnable> loopTasks = new ConcurrentLinkedQueue<>();
+    private Selector selector;
+
+    public NioServer(int port, int workerThreads, int queueCapacity) {
+        this.port = port;
+        AtomicInteger ids = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(
+                workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread t = new Thread(r, "auth-worker-" + ids.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    public void run() throws IOException {
+        selector = Selector.open();
+        try (ServerSocketChannel server = ServerSocketChannel.open()) {
+            server.bind(new InetSocketAddress(port));
+            server.configureBlocking(false);
+            server.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Server started (nio, " + workers.getCorePoolSize() + " workers). Listening on port " + port);
+
+            while (true) {
+                selector.select();
+
+                Runnable task;
+                while ((task = loopTasks.poll()) != null) task.run();
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) continue;
+                        if (key.isAcceptable()) {
+                            accept(server);
+                        } else {
+                            if (key.isReadable()) read(key);
+                            if (key.isValid() && key.isWritable()) write(key);
+                        }
+                    } catch (IOException e) {
+                        close(key);
+                    }
+                }
+            }
+        } finally {
+            workers.shutdown();
+        }
+    }
+
+    // ---------- Event loop ----------
+
+    private void accept(ServerSocketChannel server) throws IOException {
+        SocketChannel ch;
+        while ((ch = server.accept()) != null) {
+            ch.configureBlocking(false);
+            ch.register(selector, SelectionKey.OP_READ, new Conn(addressOf(ch)));
+        }
+    }
+
+    private void read(SelectionKey key) throws IOException {
+        SocketChannel ch = (SocketChannel) key.channel();
+        Conn conn = (Conn) key.attachment();
+        if (ch.read(conn.in) < 0) conn.eof = true;
+        pump(key);
+    }
+
+    private void write(SelectionKey key) throws IOException {
+        SocketChannel ch = (SocketChannel) key.channel();
+        Conn conn = (Conn) key.attachment();
+        ByteBuffer head;
+        while ((head = conn.out.peek()) != null) {
+            ch.write(head);
+            if (head.hasRemaining()) break;
+            conn.out.poll();
+            if (conn.streaming) conn.window.release(); // while streaming, out holds only its chunks
+        }
+        updateInterest(key);
+    }
+
+    /**
+     * Moves the connection forward: takes the next buffered line if no request is in flight.
+     * The first line decides the mode; one-shot connections close after their single reply,
+     * pipelined ones process lines strictly one at a time so replies stay in request order.
+     */
+    private void pump(SelectionKey key) {
+        Conn conn = (Conn) key.attachment();
+        while (!conn.busy && !conn.closing) {
+            if (!conn.started && conn.in.position() > 0 && (conn.in.get(0) & 0xff) == BinaryProtocol.MAGIC) {
+                conn.started = true;
+                conn.binary = true;
+            }
+            if (conn.binary) {
+                int len = BinaryProtocol.frameLength(conn.in);
+                if (len == 0 && !conn.eof) break;
+                if (len <= 0) {
+                    conn.closing = true; // garbage or a truncated frame: there is no way to resync
+                    break;
+                }
+                byte[] frame = Arrays.copyOf(conn.in.array(), len); // the worker gets its own bytes
+                conn.in.flip();
+                conn.in.position(len);
+                conn.in.compact();
+                submitFrame(key, frame);
+                continue;
+            }
+            String line = takeLine(conn.in);
+            if (line == null) {
+                if (conn.eof) {
+                    // like readLine, an unterminated tail still counts as a line
+                    if (conn.in.position() > 0) line = drain(conn.in);
+                    else if (!conn.started) line = "";
+                    else if (conn.bulkRows != null) submitBulk(key); // short batch; the handler reports it
+                    else conn.closing = true;
+                } else if (!conn.in.hasRemaining()) {
+                    enqueue(conn, "ERROR: Request too long" + System.lineSeparator());
+                    conn.closing = true;
+                }
+                if (line == null) break;
+            }
+
+            if (conn.bulkRows != null) {
+                conn.bulkRows.add(line);
+                if (conn.bulkRows.size() == conn.bulkExpected || conn.eof) submitBulk(key);
+            } else if (!conn.started) {
+                conn.started = true;
+                if (Server.PIPELINE.equals(line)) {
+                    conn.pipelined = true;
+                    enqueue(conn, Server.PIPELINE_OK + System.lineSeparator());
+                    continue;
+                }
+                if (line.startsWith(Server.BULK_SIGNUP)) {
+                    startBulk(conn, line);
+                    if (conn.bulkExpected == 0) submitBulk(key);
+                    continue;
+                }
+                submit(key, line.isEmpty() ? null : line);
+            } else if (!conn.pipelined || line.equals("QUIT")) {
+                conn.closing = true;
+            } else {
+                submit(key, line);
+            }
+        }
+        updateInterest(key);
+    }
+
+    private void submit(SelectionKey key, String line) {
+        Conn conn = (Conn) key.attachment();
+        boolean pipelined = conn.pipelined;
+        String client = conn.client;
+        conn.busy = true;
+        if (!pipelined) {
+            conn.streaming = true;
+            try {
+                workers.execute(() -> oneShot(key, conn, line));
+            } catch (RejectedExecutionException e) {
+                conn.streaming = false;
+                complete(key, "ERROR: Server busy" + System.lineSeparator(), true);
+            }
+            return;
+        }
+        try {
+            workers.execute(() -> {
+                String response;
+                boolean failed = false;
+                try {
+                    response = Server.frame(line, client);
+                } catch (RuntimeException e) {
+                    System.err.println("Client handling error: " + e.getMessage());
+                    response = "ERROR: Internal error" + System.lineSeparator();
+                    failed = true; // framing is lost; finish like a one-shot connection
+                }
+                String reply = response;
+                boolean last = failed;
+                loopTasks.add(() -> complete(key, reply, last));
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException e) {
+            complete(key, idOf(line) + " 1" + System.lineSeparator() + "ERROR: Server busy" + System.lineSeparator(), false);
+        }
+    }
+
+    /** Runs a one-shot request on a worker, streaming its reply through a ChunkWriter. */
+    private void oneShot(SelectionKey key, Conn conn, String line) {
+        ChunkWriter sink = new ChunkWriter(key, conn);
+        try (PrintWriter out = new PrintWriter(sink)) {
+            try {
+                Server.dispatch(line, conn.client, out);
+            } catch (RuntimeException e) {
+                System.err.println("Client handling error: " + e.getMessage());
+                out.println("ERROR: Internal error");
+            }
+        }
+        loopTasks.add(() -> {
+            conn.streaming = false;
+            complete(key, "", true);
+        });
+        selector.wakeup();
+    }
+
+    private void submitFrame(SelectionKey key, byte[] frame) {
+        Conn conn = (Conn) key.attachment();
+        String client = conn.client;
+        conn.busy = true;
+        try {
+            workers.execute(() -> {
+                ByteBuffer reply;
+                boolean failed = false;
+                try {
+                    reply = Server.handleFrame(BinaryProtocol.parse(ByteBuffer.wrap(frame)), client);
+                } catch (RuntimeException e) {
+                    System.err.println("Client handling error: " + e.getMessage());
+                    reply = BinaryProtocol.reply(frame[2] & 0xff, "ERROR: Internal error");
+                    failed = true;
+                }
+                ByteBuffer out = reply;
+                boolean last = failed;
+                loopTasks.add(() -> complete(key, out, last));
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException e) {
+            complete(key, BinaryProtocol.reply(frame[2] & 0xff, "ERROR: Server busy"), false);
+        }
+    }
+
+    /**
+     * BULK_SIGNUP as the first line: collect its rows on the loop thread, then run the whole batch
+     * on one worker. An invalid count leaves bulkExpected at 0 so the handler replies the error at once.
+     */
+    private static void startBulk(Conn conn, String line) {
+        int n = Server.bulkCount(line.substring(Server.BULK_SIGNUP.length()));
+        conn.bulkHeader = line;
+        conn.bulkExpected = n < 1 || n > Server.BULK_MAX ? 0 : n;
+        conn.bulkRows = new ArrayList<>(conn.bulkExpected);
+    }
+
+    private void submitBulk(SelectionKey key) {
+        Conn conn = (Conn) key.attachment();
+        String header = conn.bulkHeader;
+        Iterator<String> rows = conn.bulkRows.iterator();
+        conn.bulkRows = null;
+        conn.busy = true;
+        try {
+            workers.execute(() -> {
+                StringWriter buf = new StringWriter();
+                try (PrintWriter out = new PrintWriter(buf)) {
+                    Server.logReceived(header);
+                    Server.handleBulkSignup(header.substring(Server.BULK_SIGNUP.length()).trim(),
+                            () -> rows.hasNext() ? rows.next() : null, out);
+                } catch (IOException | RuntimeException e) {
+                    System.err.println("Client handling error: " + e.getMessage());
+                    buf.write("ERROR: Internal error" + System.lineSeparator());
+                }
+                String reply = buf.toString();
+                loopTasks.add(() -> complete(key, reply, true));
+                selector.wakeup();
+            });
+        } catch (RejectedExecutionException e) {
+            complete(key, "ERROR: Server busy" + System.lineSeparator(), true);
+        }
+    }
+
+    private void complete(SelectionKey key, String response, boolean last) {
+        complete(key, ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8)), last);
+    }
+
+    private void complete(SelectionKey key, ByteBuffer response, boolean last) {
+        if (!key.isValid()) return;
+        Conn conn = (Conn) key.attachment();
+        conn.busy = false;
+        if (response.hasRemaining()) conn.out.add(response);
+        if (last) conn.closing = true;
+        pump(key);
+    }
+
+    private static void enqueue(Conn conn, String response) {
+        conn.out.add(ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void updateInterest(SelectionKey key) {
+        if (!key.isValid()) return;
+        Conn conn = (Conn) key.attachment();
+        if (conn.closing && !conn.busy && conn.out.isEmpty()) {
+            close(key);
+            return;
+        }
+        int ops = 0;
+        if (!conn.closing && !conn.eof && conn.in.hasRemaining()) ops |= SelectionKey.OP_READ;
+        if (!conn.out.isEmpty()) ops |= SelectionKey.OP_WRITE;
+        key.interestOps(ops);
+    }
+
+    private static void close(SelectionKey key) {
+        if (key.attachment() instanceof Conn conn) conn.closed = true;
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException ignored) {}
+    }
+
+    private static String addressOf(SocketChannel ch) {
+        try {
+            return ch.getRemoteAddress() instanceof InetSocketAddress a ? a.getAddress().getHostAddress() : null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static String idOf(String line) {
+        int sp = line.indexOf(' ');
+        return sp > 0 ? line.substring(0, sp) : "?";
+    }
+
+    // ---------- Framing ----------
+
+    /** Removes and returns the first complete line in the buffer (without CR/LF), or null. */
+    private static String takeLine(ByteBuffer in) {
+        for (int i = 0; i < in.position(); i++) {
+            if (in.get(i) != '\n') continue;
+            int end = (i > 0 && in.get(i - 1) == '\r') ? i - 1 : i;
+            String line = new String(in.array(), 0, end, StandardCharsets.UTF_8);
+            in.flip();
+            in.position(i + 1);
+            in.compact();
+            return line;
+        }
+        return null;
+    }
+
+    private static String drain(ByteBuffer in) {
+        String line = new String(in.array(), 0, in.position(), StandardCharsets.UTF_8);
+        in.clear();
+        return line;
+    }
+
+    /**
+     * Worker side of a streaming reply: every CHUNK chars become one buffer on the connection's
+     * out queue, added by the loop thread. Blocks while WINDOW chunks are unsent; once the
+     * connection is gone it fails each write, which PrintWriter records and otherwise ignores.
+     */
+    private final class ChunkWriter extends Writer {
+        private final SelectionKey key;
+        private final Conn conn;
+        private final StringBuilder buf = new StringBuilder(CHUNK);
+
+        ChunkWriter(SelectionKey key, Conn conn) {
+            this.key = key;
+            this.conn = conn;
+        }
+
+        @Override
+        public void write(char[] c, int off, int len) throws IOException {
+            buf.append(c, off, len);
+            if (buf.length() >= CHUNK) push();
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            buf.append(str, off, off + len);
+            if (buf.length() >= CHUNK) push();
+        }
+
+        @Override
+        public void flush() {
+            // chunks go out when full or at close; a flush per println would defeat them
+        }
+
+        @Override
+        public void close() throws IOException {
+            push();
+        }
+
+        private void push() throws IOException {
+            if (buf.isEmpty()) return;
+            ByteBuffer chunk = ByteBuffer.wrap(buf.toString().getBytes(StandardCharsets.UTF_8));
+            buf.setLength(0);
+            try {
+                while (!conn.window.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                    if (conn.closed) throw new IOException("Connection closed");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+            if (conn.closed) throw new IOException("Connection closed");
+            loopTasks.add(() -> {
+                if (!key.isValid()) return;
+                conn.out.add(chunk);
+                updateInterest(key);
+            });
+            selector.wakeup();
+        }
+    }
+
+    private static final class Conn {
+        final String client;
+        final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+        final ArrayDeque<ByteBuffer> out = new ArrayDeque<>();
+        final Semaphore window = new Semaphore(WINDOW);
+        volatile boolean closed;
+        boolean streaming; // a one-shot reply is being streamed; loop thread only
+        boolean started, pipelined, binary, busy, eof, closing;
+        String bulkHeader;
+        int bulkExpected;
+        List<String> bulkRows; // non-null while a BULK_SIGNUP batch is being read
+
+        Conn(String client) {
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,253 @@
+package com.server.server;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded outbound queue for one CollabServer client, drained by its own writer thread, so a
+ * stalled socket only ever blocks that client's writer and never the thread broadcasting to it.
+ * It holds -Dcollab.outbox.capacity lines (default 1024; collab.queue is the connection pool's).
+ * When the queue is full the overflow policy decides (-Dcollab.overflow, default drop_move):
+ *   drop_move  -> drop the oldest queued MOVE point; strokes lose a point, never a DOWN or a chat
+ *   coalesce   -> replace the same sender's last queued MOVE with the new one when nothing of
+ *                 that sender's comes after it; otherwise as drop_move
+ *   disconnect -> close the connection; the client can rejoin and start clean
+ * With nothing droppable, a MOVE is dropped on arrival and anything else disconnects.
+ *
+ * Lines are queued already encoded. A broadcast encodes its line once (encode) and every
+ * recipient queues a duplicate() of that read-only buffer: its own position over the same bytes.
+ * The writer hands a whole batch to one gathering write on the SocketChannel.
+ */
+public class Outbox {
+
+    public enum Overflow { DROP_MOVE, COALESCE, DISCONNECT }
+
+    static final int CAPACITY = Math.max(1, Integer.getInteger("collab.outbox.capacity", 1024));
+    static final Overflow OVERFLOW = Overflow.valueOf(System.getProperty("collab.overflow", "drop_move").toUpperCase());
+
+    // totals over every client, for STATS
+    static final LongAdder TOTAL_DROPPED = new LongAdder();
+    static final LongAdder TOTAL_COALESCED = new LongAdder();
+    static final LongAdder TOTAL_DISCONNECTED = new LongAdder();
+
+    /** A queued line; sender and move let the overflow policy pick what to give up. */
+    private record Entry(ByteBuffer bytes, String sender, boolean move) {}
+
+    private final SocketChannel channel;
+    private final boolean framed; // a v2 client: replies go out as TEXT frames
+    private final LongAdder bytesOut;
+    private final String name;
+    private final int capacity;
+    private final Overflow overflow;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private ArrayDeque<Entry> held; // while a room replay streams, live lines wait here (same limits)
+    private boolean closed;
+    private boolean writing; // a batch has left the queue but is not flushed yet
+
+    private int peak;
+    private long sent, dropped, coalesced, bytes;
+
+    public Outbox(SocketChannel channel, String name, int capacity, Overflow overflow, boolean framed, LongAdder bytesOut) {
+        this.channel = channel;
+        this.framed = framed;
+        this.bytesOut = bytesOut;
+        this.name = name;
+        this.capacity = capacity;
+        this.overflow = overflow;
+    }
+
+    /** Starts the writer; lines queued before this go out first, in order. */
+    public void start() {
+        Thread.ofVirtual().name("collab-out-" + name).start(this::drain);
+    }
+
+    /** line + '\n' as UTF-8 in a read-only buffer that any number of recipients can share. */
+    public static ByteBuffer encode(String line) {
+        return ByteBuffer.wrap((line + "\n").getBytes(StandardCharsets.UTF_8)).asReadOnlyBuffer();
+    }
+
+    /** A line for this client alone (replies). */
+    public void send(String line) {
+        send(framed ? StrokeProtocol.text(line) : encode(line));
+    }
+
+    /** An encoded line shared with other recipients (INFO, CHAT); never modified, only duplicated. */
+    public void send(ByteBuffer shared) {
+        offer(new Entry(shared.duplicate(), null, false));
+    }
+
+    /** A DRAW event from sender; move marks a MOVE point, the only kind the policy may drop. */
+    public void sendDraw(ByteBuffer shared, String sender, boolean move) {
+        offer(new Entry(shared.duplicate(), sender, move));
+    }
+
+    private void offer(Entry e) {
+        boolean disconnect = false;
+        synchronized (this) {
+            if (closed) return;
+            ArrayDeque<Entry> q = held != null ? held : queue;
+            if (q.size() >= capacity) {
+                if (overflow == Overflow.DISCONNECT) {
+                    disconnect = true;
+                } else if (overflow == Overflow.COALESCE && e.move() && coalesce(q, e)) {
+                    return;
+                } else if (!dropOldestMove(q)) {
+                    if (e.move()) {
+                        dropped++;
+                        TOTAL_DROPPED.increment();
+                        return;
+                    }
+                    disconnect = true;
+                }
+            }
+            if (!disconnect) {
+                q.addLast(e);
+                peak = Math.max(peak, q.size());
+                notifyAll();
+            }
+        }
+        if (disconnect) {
+            TOTAL_DISCONNECTED.increment();
+            CollabServer.logEvent("COLLAB_DISCONNECT", "client=" + name + " reason=queue_full capacity=" + capacity);
+            close();
+        }
+    }
+
+    /** Replaces the sender's newest queued entry with e if that entry is a MOVE. */
+    private boolean coalesce(ArrayDeque<Entry> q, Entry e) {
+        for (Iterator<Entry> it = q.descendingIterator(); it.hasNext(); ) {
+            Entry last = it.next();
+            if (!e.sender().equals(last.sender())) continue;
+            if (!last.move()) return false; // a DOWN (or other) after it: replacing would reorder the stroke
+            it.remove();
+            q.addLast(e);
+            coalesced++;
+            TOTAL_COALESCED.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean dropOldestMove(ArrayDeque<Entry> q) {
+        for (Iterator<Entry> it = q.iterator(); it.hasNext(); ) {
+            if (it.next().move()) {
+                it.remove();
+                dropped++;
+                TOTAL_DROPPED.increment();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ---------- Replay ----------
+
+    /** From now on live lines are held back until endReplay, behind the replayed history. */
+    public synchronized void beginReplay() {
+        if (held == null) held = new ArrayDeque<>();
+    }
+
+    /**
+     * Queues one replay chunk, first waiting until the queue is at most half full, so a long
+     * history streams at this client's pace. False once the connection is closed.
+     */
+    public boolean replay(ByteBuffer chunk) throws InterruptedException {
+        synchronized (this) {
+            while (!closed && queue.size() >= Math.max(1, capacity / 2)) wait(50); // capacity 1: wait for empty
+            if (closed) return false;
+            queue.addLast(new Entry(chunk, null, false));
+            peak = Math.max(peak, queue.size());
+            notifyAll();
+            return true;
+        }
+    }
+
+    /** Releases the live lines held during the replay. */
+    public synchronized void endReplay() {
+        if (held == null) return;
+        queue.addAll(held);
+        held = null;
+        peak = Math.max(peak, queue.size());
+        notifyAll();
+    }
+
+    /** Writer thread: takes everything queued and writes it with gathering writes, one batch at a time. */
+    private void drain() {
+        ByteBuffer[] batch = new ByteBuffer[0];
+        try {
+            while (true) {
+                int n;
+                synchronized (this) {
+                    while (queue.isEmpty() && !closed) wait();
+                    if (queue.isEmpty()) return;
+                    n = queue.size();
+                    if (batch.length < n) batch = new ByteBuffer[Math.max(n, 2 * batch.length)];
+                    for (int i = 0; i < n; i++) batch[i] = queue.pollFirst().bytes();
+                    writing = true;
+                }
+                int first = 0;
+                while (first < n) {
+                    long w = channel.write(batch, first, n - first); // blocking: returns once something went out
+                    bytesOut.add(w);
+                    synchronized (this) {
+                        bytes += w;
+                    }
+                    while (first < n && !batch[first].hasRemaining()) batch[first++] = null;
+                }
+                synchronized (this) {
+                    sent += n;
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            close();
+        }
+    }
+
+    /** Discards anything still queued, stops the writer and closes the socket. */
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            queue.clear();
+            held = null;
+            notifyAll();
+        }
+        try { channel.close(); } catch (IOException ignored) {}
+    }
+
+    /** Flushes what is queued (best effort, up to timeoutMs) and then closes. */
+    public void closeAfterFlush(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        synchronized (this) {
+            try {
+                while ((!queue.isEmpty() || writing) && !closed && System.currentTimeMillis() < deadline) wait(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        close();
+    }
+
+    /** "name depth=.. peak=.. sent=.. dropped=.. coalesced=.. bytes=.." */
+    public synchronized String describe() {
+        return name + " depth=" + queue.size() + " peak=" + peak + " sent=" + sent
+                + " dropped=" + dropped + " coalesced=" + coalesced + " bytes=" + bytes;
+    }
+
+    public synchronized int depth() {
+        return queue.size();
+    }
+
+    static String totals() {
+        return "outbox capacity=" + CAPACITY + " overflow=" + OVERFLOW.name().toLowerCase()
+                + " dropped=" + TOTAL_DROPPED.sum() + " coalesced=" + TOTAL_COALESCED.sum()
+                + " disconnected=" + TOTAL_DISCONNECTED.sum();
+    }
+}
@@ -0,0 +1,152 @@
+package com.server.server;
+
+import org.mindrot.jbcrypt.BCrypt;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * Pluggable password hashing for the salt,hash columns of users.txt.
+ *   sha256 -> legacy: salt = 16 random bytes in hex, hash = hex(SHA-256(salt bytes + password))
+ *   bcrypt -> salt column empty, hash = the "$2a$&lt;cost&gt;$..." string (salt and cost are inside it)
+ * Stored rows are verified by whichever scheme wrote them (see {@link #forStored}), so both can
+ * coexist while logins upgrade old rows to the configured one.
+ */
+public interface PasswordHasher {
+
+    /** Returns the {salt, hash} columns for a new password. */
+    String[] hash(String password);
+
+    boolean verify(String password, String salt, String hash);
+
+    /** True if a row written with these columns needs no rehash under the current settings. */
+    boolean isCurrent(String salt, String hash);
+
+    /** Reads db.hash (sha256|bcrypt, default bcrypt) and db.hash.cost (bcrypt log rounds, default 10). */
+    static PasswordHasher fromProperties() {
+        String name = System.getProperty("db.hash", "bcrypt").toLowerCase();
+        return switch (name) {
+            case "sha256" -> Sha256.INSTANCE;
+            case "bcrypt" -> new Bcrypt(Integer.getInteger("db.hash.cost", 10));
+            default -> throw new IllegalArgumentException("Unknown db.hash: " + name);
+        };
+    }
+
+    /** The scheme that produced a stored hash. */
+    static PasswordHasher forStored(String hash, PasswordHasher current) {
+        if (!Bcrypt.isBcrypt(hash)) return Sha256.INSTANCE;
+        return current instanceof Bcrypt ? current : new Bcrypt(Bcrypt.costOf(hash));
+    }
+
+    /** Per-thread SecureRandom; seeding one is expensive and a shared one is contended. */
+    static SecureRandom random() {
+        return Sha256.RANDOM.get();
+    }
+
+    // ---------- Implementations ----------
+
+    final class Sha256 implements PasswordHasher {
+
+        static final Sha256 INSTANCE = new Sha256();
+
+        private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        private static final ThreadLocal<SecureRandom> RANDOM = ThreadLocal.withInitial(SecureRandom::new);
+        private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+        private Sha256() {}
+
+        @Override
+        public String[] hash(String password) {
+            byte[] salt = new byte[16];
+            RANDOM.get().nextBytes(salt);
+            return new String[] { toHex(salt), toHex(digest(salt, password)) };
+        }
+
+        @Override
+        public boolean verify(String password, String salt, String hash) {
+            byte[] expected = fromHex(hash);
+            return expected != null && MessageDigest.isEqual(digest(fromHex(salt), password), expected);
+        }
+
+        @Override
+        public boolean isCurrent(String salt, String hash) {
+            return !Bcrypt.isBcrypt(hash);
+        }
+
+        private static byte[] digest(byte[] salt, String password) {
+            MessageDigest md = DIGEST.get();
+            md.reset();
+            if (salt != null) md.update(salt);
+            return md.digest(password.getBytes(StandardCharsets.UTF_8));
+        }
+
+        static String toHex(byte[] arr) {
+            char[] out = new char[arr.length * 2];
+            for (int i = 0; i < arr.length; i++) {
+                out[2 * i] = HEX[(arr[i] >> 4) & 0xf];
+                out[2 * i + 1] = HEX[arr[i] & 0xf];
+            }
+            return new String(out);
+        }
+
+        /** Null if the text is not even-length hex. */
+        static byte[] fromHex(String hex) {
+            int len = hex.length();
+            if ((len & 1) != 0) return null;
+            byte[] data = new byte[len / 2];
+            for (int i = 0; i < len; i += 2) {
+                int hi = Character.digit(hex.charAt(i), 16), lo = Character.digit(hex.charAt(i + 1), 16);
+                if (hi < 0 || lo < 0) return null;
+                data[i / 2] = (byte) ((hi << 4) + lo);
+            }
+            return data;
+        }
+    }
+
+    final class Bcrypt implements PasswordHasher {
+
+        private final int cost;
+
+        Bcrypt(int cost) {
+            if (cost < 4 || cost > 31) throw new IllegalArgumentException("bcrypt cost must be 4..31: " + cost);
+            this.cost = cost;
+        }
+
+        @Override
+        public String[] hash(String password) {
+            return new String[] { "", BCrypt.hashpw(password, BCrypt.gensalt(cost, random())) };
+        }
+
+        @Override
+        public boolean verify(String password, String salt, String hash) {
+            try {
+                return BCrypt.checkpw(password, hash);
+            } catch (IllegalArgumentException e) {
+                return false; // malformed stored hash
+            }
+        }
+
+        @Override
+        public boolean isCurrent(String salt, String hash) {
+            return isBcrypt(hash) && costOf(hash) == cost;
+        }
+
+        static boolean isBcrypt(String hash) {
+            return hash.startsWith("$2") && hash.length() == 60;
+        }
+
+        /** "$2a$10$..." -> 10. */
+        static int costOf(String hash) {
+            int start = hash.indexOf('$', 1) + 1;
+            return Integer.parseInt(hash.substring(start, start + 2));
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package com.server.server;
+
+import com.server.server.CollabServer.Point;
+import com.server.server.CollabServer.Style;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Drawing history of one collab room, so a student who joins mid-session sees the canvas.
+ * Every relayed stroke event is appended to the tail; compaction folds the tail into the
+ * snapshot, one entry per stroke with all of its points, and starts a new tail. The snapshot
+ * is never changed once published, so a replay walks it without holding the lock, and
+ * compaction builds the next one without holding it either: the relay never waits for it.
+ * A newcomer gets the snapshot and then the tail, as ordinary EVT/EVTS lines or v2 frames of
+ * at most chunkPoints points each, at its own pace (see Outbox.replay).
+ *
+ * Settings, all -Dcollab.history.*:
+ *   maxPoints (200000)    per room; the oldest finished strokes go first, then the oldest points
+ *                         of unfinished ones; 0 turns history off
+ *   compactEvents (2000)  compact once the tail is this long, and every compactSec (10) anyway
+ *   chunkPoints (256)     points per replayed message
+ *   keepSec (600)         how long an empty room's history waits for someone to rejoin
+ */
+final class RoomHistory {
+
+    static final int MAX_POINTS = Integer.getInteger("collab.history.maxPoints", 200_000);
+    static final int COMPACT_EVENTS = Integer.getInteger("collab.history.compactEvents", 2000);
+    static final int COMPACT_SEC = Integer.getInteger("collab.history.compactSec", 10);
+    static final int CHUNK_POINTS = Math.max(1, Integer.getInteger("collab.history.chunkPoints", 256));
+    static final int KEEP_SEC = Integer.getInteger("collab.history.keepSec", 600);
+
+    static final int DOWN = 0, MOVES = 1, UP = 2;
+
+    static final LongAdder REPLAYS = new LongAdder();
+    static final LongAdder REPLAYED_MESSAGES = new LongAdder();
+
+    /** One relayed event; points holds a single point for DOWN and UP. */
+    record Event(int kind, int sender, String name, Style style, Point[] points) {}
+
+    /** A stroke in the snapshot; end is null while it is still being drawn. */
+    record Stroke(int sender, String name, Style style, Point[] points, Point end) {}
+
+    /** What a newcomer is sent: the snapshot and the tail as they were when it joined. */
+    record Replay(List<Stroke> snapshot, List<Event> tail) {
+        boolean isEmpty() {
+            return snapshot.isEmpty() && tail.isEmpty();
+        }
+    }
+
+    private List<Stroke> snapshot = List.of();
+    private int snapshotPoints;
+    private ArrayList<Event> tail = new ArrayList<>();
+    private List<Event> folding = List.of(); // the old tail while a compaction folds it; still replayed
+    private boolean compactRequested;
+    private long lastUsed = System.currentTimeMillis();
+    private final Object compacting = new Object(); // one compaction at a time
+
+    static boolean enabled() {
+        return MAX_POINTS > 0;
+    }
+
+    // Callers hold this history's lock around append and the matching broadcast, and around
+    // capture and the newcomer joining the room, so a newcomer gets every event exactly once.
+
+    /** Appends e; true once the tail is compactEvents long, for the caller to have it compacted off the relay. */
+    synchronized boolean append(Event e) {
+        tail.add(e);
+        lastUsed = System.currentTimeMillis();
+        if (tail.size() < COMPACT_EVENTS || compactRequested) return false;
+        compactRequested = true;
+        return true;
+    }
+
+    synchronized Replay capture() {
+        lastUsed = System.currentTimeMillis();
+        if (folding.isEmpty()) return new Replay(snapshot, List.copyOf(tail));
+        ArrayList<Event> events = new ArrayList<>(folding.size() + tail.size());
+        events.addAll(folding);
+        events.addAll(tail);
+        return new Replay(snapshot, Collections.unmodifiableList(events));
+    }
+
+    synchronized void touch() {
+        lastUsed = System.currentTimeMillis();
+    }
+
+    synchronized boolean idleFor(long ms) {
+        return System.currentTimeMillis() - lastUsed > ms;
+    }
+
+    synchronized String describe() {
+        return "strokes=" + snapshot.size() + " points=" + snapshotPoints + " tail=" + (folding.size() + tail.size());
+    }
+
+    /**
+     * Folds the tail into a new snapshot, trimmed to maxPoints (see trim). The lock is held only
+     * to hand the tail over and to publish the result; until then capture still replays the old
+     * snapshot followed by the tail being folded.
+     */
+    void compact() {
+        synchronized (compacting) {
+            List<Stroke> base;
+            List<Event> events;
+            synchronized (this) {
+                compactRequested = false;
+                if (tail.isEmpty()) return;
+                base = snapshot;
+                events = folding = tail;
+                tail = new ArrayList<>();
+            }
+            List<Stroke> next = fold(base, events);
+            int total = 0;
+            for (Stroke s : next) total += s.points().length;
+            synchronized (this) {
+                snapshot = next;
+                snapshotPoints = total;
+                folding = List.of();
+            }
+        }
+    }
+
+    private static List<Stroke> fold(List<Stroke> base, List<Event> events) {
+        ArrayList<Stroke> strokes = new ArrayList<>(base);
+        Map<Integer, Builder> open = new HashMap<>();
+        for (int i = 0; i < strokes.size(); i++) {
+            Stroke s = strokes.get(i);
+            if (s.end() == null) open.put(s.sender(), new Builder(i, s.sender(), s.name(), s.style(), s.points()));
+        }
+        for (Event e : events) {
+            Builder b = open.get(e.sender());
+            switch (e.kind()) {
+                case DOWN -> {
+                    if (b != null) b.finish(strokes, b.last()); // no UP came; end it where it stopped
+                    open.put(e.sender(), Builder.start(strokes, e, e.points()));
+                }
+                case MOVES -> {
+                    if (b == null) {
+                        open.put(e.sender(), Builder.start(strokes, e, e.points()));
+                    } else if (!b.style.equals(e.style())) {
+                        // a style change without DOWN: a new stroke from the last point, as v2 members saw it
+                        b.finish(strokes, b.last());
+                        Builder next = Builder.start(strokes, e, new Point[] { b.last() });
+                        next.points.addAll(Arrays.asList(e.points()));
+                        open.put(e.sender(), next);
+                    } else {
+                        b.points.addAll(Arrays.asList(e.points()));
+                    }
+                }
+                case UP -> {
+                    if (b != null) {
+                        b.finish(strokes, e.points()[0]);
+                        open.remove(e.sender());
+                    }
+                }
+            }
+        }
+        for (Builder b : open.values()) b.finish(strokes, null);
+        return Collections.unmodifiableList(trim(strokes));
+    }
+
+    /**
+     * Drops the oldest finished strokes while over maxPoints. If that is not enough, unfinished
+     * strokes (a sender that never sent UP) lose their oldest points, or go whole; a later MOVE
+     * of theirs then starts a new stroke.
+     */
+    private static List<Stroke> trim(List<Stroke> strokes) {
+        int total = 0;
+        for (Stroke s : strokes) total += s.points().length;
+        ArrayList<Stroke> kept = new ArrayList<>(strokes.size());
+        for (Stroke s : strokes) {
+            if (total > MAX_POINTS && s.end() != null) {
+                total -= s.points().length;
+                continue;
+            }
+            kept.add(s);
+        }
+        if (total <= MAX_POINTS) return kept;
+        ArrayList<Stroke> trimmed = new ArrayList<>(kept.size());
+        for (Stroke s : kept) {
+            int n = s.points().length, cut = total - MAX_POINTS;
+            if (s.end() != null || cut <= 0) {
+                trimmed.add(s); // only unfinished ones are left to give points up
+            } else if (cut >= n) {
+                total -= n;
+            } else {
+                trimmed.add(new Stroke(s.sender(), s.name(), s.style(), Arrays.copyOfRange(s.points(), cut, n), null));
+                total -= cut;
+            }
+        }
+        return trimmed;
+    }
+
+    /** An unfinished stroke during compaction; finish writes it back to its slot. */
+    private static final class Builder {
+        final int index, sender;
+        final String name;
+        final Style style;
+        final ArrayList<Point> points;
+
+        Builder(int index, int sender, String name, Style style, Point[] points) {
+            this.index = index;
+            this.sender = sender;
+            this.name = name;
+            this.style = style;
+            this.points = new ArrayList<>(Arrays.asList(points));
+        }
+
+        static Builder start(List<Stroke> strokes, Event e, Point[] points) {
+            strokes.add(null);
+            return new Builder(strokes.size() - 1, e.sender(), e.name(), e.style(), points);
+        }
+
+        Point last() {
+            return points.get(points.size() - 1);
+        }
+
+        void finish(List<Stroke> strokes, Point end) {
+            strokes.set(index, new Stroke(sender, name, style, points.toArray(new Point[0]), end));
+        }
+    }
+
+    // ---------- Replay ----------
+
+    /**
+     * Sends r to a newcomer in chunks, as lines (v1) or frames (v2); false if it disconnected.
+     * Waits whenever its queue is half full, so only the newcomer's own thread is held up.
+     */
+    static boolean stream(Replay r, boolean v2, Outbox out) throws InterruptedException {
+        REPLAYS.increment();
+        Map<Integer, Style> begun = new HashMap<>(); // v2: the style each sender's last BEGIN carried
+        for (Stroke s : r.snapshot()) {
+            if (!send(out, v2, begun, DOWN, s.sender(), s.name(), s.style(), s.points(), 0, 1)) return false;
+            if (!sendMoves(out, v2, begun, s.sender(), s.name(), s.style(), s.points(), 1)) return false;
+            if (s.end() != null && !send(out, v2, begun, UP, s.sender(), s.name(), s.style(), new Point[] { s.end() }, 0, 1)) {
+                return false;
+            }
+        }
+        for (Event e : r.tail()) {
+            boolean ok = e.kind() == MOVES
+                    ? sendMoves(out, v2, begun, e.sender(), e.name(), e.style(), e.points(), 0)
+                    : send(out, v2, begun, e.kind(), e.sender(), e.name(), e.style(), e.points(), 0, 1);
+            if (!ok) return false;
+        }
+        return true;
+    }
+
+    private static boolean sendMoves(Outbox out, boolean v2, Map<Integer, Style> begun, int sender, String name,
+                                     Style style, Point[] points, int from) throws InterruptedException {
+        for (int i = from; i < points.length; i += CHUNK_POINTS) {
+            if (!send(out, v2, begun, MOVES, sender, name, style, points, i, Math.min(points.length, i + CHUNK_POINTS))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** One message for points[from, to), worded as the live relay words it (see CollabServer). */
+    private static boolean send(Outbox out, boolean v2, Map<Integer, Style> begun, int kind, int sender, String name,
+                                Style style, Point[] points, int from, int to) throws InterruptedException {
+        Point first = points[from];
+        ByteBuffer msg;
+        if (v2) {
+            if (kind == MOVES && !style.equals(begun.get(sender))) {
+                if (!out.replay(begin(sender, name, style, first))) return false;
+                begun.put(sender, style);
+            }
+            if (kind == DOWN) {
+                begun.put(sender, style);
+                msg = begin(sender, name, style, first);
+            } else if (kind == UP) {
+                msg = StrokeProtocol.end(sender, first.qx(), first.qy());
+            } else {
+                int[] xy = new int[2 * (to - from)];
+                for (int i = from; i < to; i++) {
+                    xy[2 * (i - from)] = points[i].qx();
+                    xy[2 * (i - from) + 1] = points[i].qy();
+                }
+                msg = StrokeProtocol.points(sender, xy, to - from);
+            }
+        } else {
+            String look = style.color() + " " + style.width();
+            StringBuilder line = new StringBuilder();
+            if (kind != MOVES || to - from == 1) {
+                String phase = kind == DOWN ? "DOWN" : kind == UP ? "UP" : "MOVE";
+                line.append("EVT ").append(name).append(' ').append(phase)
+                        .append(' ').append(first.x()).append(' ').append(first.y()).append(' ').append(look);
+            } else {
+                line.append("EVTS ").append(name).append(' ').append(look);
+                for (int i = from; i < to; i++) line.append(' ').append(points[i].x()).append(' ').append(points[i].y());
+            }
+            msg = Outbox.encode(line.toString());
+        }
+        REPLAYED_MESSAGES.increment();
+        return out.replay(msg);
+    }
+
+    private static ByteBuffer begin(int sender, String name, Style style, Point p) {
+        return StrokeProtocol.begin(sender, name, StrokeProtocol.rgb(style.color()),
+                StrokeProtocol.quantize(Double.parseDouble(style.width())), style.tool(), p.qx(), p.qy());
+    }
+}
@@ -2,20 +2,61 @@ package com.server.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public class Server {
 
+    static final int PORT = 6000;
+    static final String PIPELINE = "PIPELINE";
+    static final String PIPELINE_OK = "OK: PIPELINE";
+    static final String BULK_SIGNUP = "BULK_SIGNUP:";
+    static final int BULK_MAX = Integer.getInteger("server.bulk.max", 10_000);
+
+    // -Dserver.executor=legacy|virtual|pool picks how the threaded front end runs connections
+    private static ConnectionExecutor connections;
+    private static final SessionManager SESSIONS = SessionManager.fromProperties();
+    // -Dserver.verbose=false drops the per-request "Received:" stdout line (a synchronized write)
+    static final boolean VERBOSE = Boolean.parseBoolean(System.getProperty("server.verbose", "true"));
+    // commands that get their own latency histogram; anything else is recorded as OTHER
+    private static final Map<String, Metrics.Histogram> TIMERS = new HashMap<>();
+    static {
+        for (String c : List.of("SIGNUP", "LOGIN", "WHOAMI", "LOGOUT", "GET_USERS", "GET_LOGS", "COUNT_LOGS",
+                "REPORT", "BAN", "RESET", "BULK_SIGNUP", "OTHER")) {
+            TIMERS.put(c, Metrics.histogram("cmd." + c));
+        }
+    }
+    private static final LoginThrottle THROTTLE = LoginThrottle.fromProperties(); // null when disabled
+
     public static void main(String[] args) {
-        final int PORT = 6000;
+        // -Dserver.mode=nio for the selector front end, anything else keeps thread-per-connection
+        String mode = System.getProperty("server.mode", "thread");
+        if ("nio".equalsIgnoreCase(mode)) {
+            try {
+                new NioServer(PORT,
+                        Integer.getInteger("server.workers", Runtime.getRuntime().availableProcessors() * 2),
+                        Integer.getInteger("server.queue", 1024)).run();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+
+        connections = ConnectionExecutor.fromProperties("auth", "server");
+        connections.startReporter("server");
 
         try (ServerSocket serverSocket = new ServerSocket(PORT)) {
-            System.out.println("Server started. Listening on port " + PORT);
+            System.out.println("Server started (" + connections.mode().name().toLowerCase() + "). Listening on port " + PORT);
 
             while (true) {
                 Socket clientSocket = serverSocket.accept();
-                System.out.println("Client connected.");
+                if (VERBOSE) System.out.println("Client connected.");
 
-                new Thread(() -> handleClient(clientSocket)).start();
+                if (!connections.submit(() -> handleClient(clientSocket))) {
+                    clientSocket.close();
+                }
             }
 
         } catch (IOException e) {
@@ -25,34 +66,31 @@ public class Server {
 
     private static void handleClient(Socket socket) {
         try (
-                BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                PrintWriter out = new PrintWriter(socket.getOutputStream(), true)
+                BufferedInputStream raw = new BufferedInputStream(socket.getInputStream());
+                BufferedOutputStream rawOut = new BufferedOutputStream(socket.getOutputStream());
+                BufferedReader in = new BufferedReader(new InputStreamReader(raw));
+                // buffered, flushed explicitly, so streamed replies go out in 8 KB writes rather than per line
+                PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(rawOut)))
         ) {
-            String line = in.readLine();
-
-            if (line == null || line.isEmpty()) {
-                out.println("ERROR: No data received");
+            String client = socket.getInetAddress().getHostAddress();
+            // the first byte picks the protocol; peek it before any reader consumes the stream
+            raw.mark(1);
+            int first = raw.read();
+            raw.reset();
+            if (first == BinaryProtocol.MAGIC) {
+                serveBinary(new DataInputStream(raw), rawOut, client);
                 return;
             }
-
-            System.out.println("Received: " + line);
-
-            if (line.startsWith("SIGNUP:")) {
-                handleSignup(line.substring(7).trim(), out);
-            } else if (line.startsWith("LOGIN:")) {
-                handleLogin(line.substring(6).trim(), out);
-            } else if (line.equals("GET_USERS")) {
-                handleGetUsers(out);
-            } else if (line.equals("GET_LOGS")) {
-                handleGetLogs(out);
-            } else if (line.startsWith("BAN:")) {
-                handleBanUser(line.substring(4).trim(), out);
-            } else if (line.startsWith("RESET:")) {
-                handleResetUser(line.substring(6).trim(), out);
+            String line = in.readLine();
+            if (PIPELINE.equals(line)) {
+                servePipelined(in, out, client);
+            } else if (line != null && line.startsWith(BULK_SIGNUP)) {
+                logReceived(line);
+                handleBulkSignup(line.substring(BULK_SIGNUP.length()).trim(), in::readLine, out);
             } else {
-                out.println("ERROR: Unknown request type");
+                dispatch(line, client, out);
             }
-
+            out.flush();
         } catch (IOException e) {
             System.err.println("Client handling error: " + e.getMessage());
         } finally {
@@ -62,18 +100,185 @@ public class Server {
         }
     }
 
+    /**
+     * Persistent mode, entered when the first line is PIPELINE. Each request is "&lt;id&gt; &lt;request&gt;";
+     * responses are framed by {@link #frame} and come back in request order. Responses are only
+     * flushed once the client's pipelined requests have all been read, so a burst costs one write.
+     */
+    private static void servePipelined(BufferedReader in, PrintWriter out, String client) throws IOException {
+        out.println(PIPELINE_OK);
+        out.flush();
+        String line;
+        while ((line = in.readLine()) != null && !line.equals("QUIT")) {
+            out.print(frame(line, client));
+            if (!in.ready()) out.flush();
+        }
+        out.flush();
+    }
+
+    /** Binary mode: frames in, frames out, in order, until the client closes. */
+    private static void serveBinary(DataInputStream in, OutputStream out, String client) throws IOException {
+        byte[] frame = new byte[BinaryProtocol.MAX_FRAME];
+        int n;
+        while ((n = BinaryProtocol.read(in, frame)) > 0) {
+            ByteBuffer reply = handleFrame(BinaryProtocol.parse(ByteBuffer.wrap(frame)), client);
+            out.write(reply.array(), 0, reply.limit());
+            if (in.available() == 0) out.flush();
+        }
+        out.flush();
+    }
+
+    /** Runs one binary request. SIGNUP and LOGIN take their fields as sent: no splitting, no trimming. */
+    static ByteBuffer handleFrame(BinaryProtocol.Frame f, String client) {
+        StringWriter buf = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(buf)) {
+            if (f.opcode == BinaryProtocol.OP_TEXT && f.fields() == 1) {
+                dispatch(f.field(0), client, pw);
+            } else if (f.opcode == BinaryProtocol.OP_SIGNUP && f.fields() == 3) {
+                String username = f.field(0);
+                logReceived("SIGNUP (binary) " + username);
+                timed(TIMERS.get("SIGNUP"), pw, () -> signup(username, f.field(1), f.field(2), pw));
+            } else if (f.opcode == BinaryProtocol.OP_LOGIN && f.fields() == 2) {
+                String username = f.field(0);
+                logReceived("LOGIN (binary) " + username);
+                timed(TIMERS.get("LOGIN"), pw, () -> login(username, f.field(1), client, pw));
+            } else {
+                pw.println("ERROR: Invalid frame");
+            }
+        }
+        return BinaryProtocol.reply(f.opcode, buf.toString());
+    }
+
+    /**
+     * Runs one pipelined request and frames the reply as a header line "&lt;id&gt; &lt;lineCount&gt;"
+     * followed by the handler's output lines, so multi-line replies like GET_USERS stay delimited.
+     * The count comes first, so the reply is built whole; page big listings with GET_USERS:.
+     */
+    static String frame(String request, String client) {
+        int sp = request.indexOf(' ');
+        String id = sp > 0 ? request.substring(0, sp) : "?";
+        StringWriter buf = new StringWriter();
+        try (PrintWriter pw = new PrintWriter(buf)) {
+            if (sp > 0) dispatch(request.substring(sp + 1).trim(), client, pw);
+            else pw.println("ERROR: Missing request id");
+        }
+        String body = buf.toString();
+        String nl = System.lineSeparator();
+        if (body.endsWith(nl)) body = body.substring(0, body.length() - nl.length());
+        String[] lines = body.split("\\R", -1);
+        StringBuilder sb = new StringBuilder(body.length() + 16);
+        sb.append(id).append(' ').append(lines.length).append(nl);
+        for (String l : lines) sb.append(l).append(nl);
+        return sb.toString();
+    }
+
+    /**
+     * Routes one request line to its handler. Shared by the threaded and NIO front ends;
+     * {@code client} is the remote address, used to throttle logins.
+     */
+    static void dispatch(String line, String client, PrintWriter out) {
+        if (line == null || line.isEmpty()) {
+            out.println("ERROR: No data received");
+            return;
+        }
+
+        logReceived(line);
+        timed(timerOf(line), out, () -> route(line, client, out));
+    }
+
+    private static void timed(Metrics.Histogram timer, PrintWriter out, Runnable handler) {
+        long start = System.nanoTime();
+        try {
+            handler.run();
+        } catch (ServerBusyException e) {
+            out.println("ERROR: busy");
+        } finally {
+            timer.since(start);
+        }
+    }
+
+    static void logReceived(String line) {
+        if (VERBOSE) System.out.println("Received: " + line);
+    }
+
+    /** "LOGIN: a,b" -> cmd.LOGIN; a fixed set, so junk requests cannot create histograms. */
+    private static Metrics.Histogram timerOf(String line) {
+        int end = 0;
+        while (end < line.length() && line.charAt(end) != ':' && line.charAt(end) != ' ') end++;
+        return TIMERS.getOrDefault(line.substring(0, end), TIMERS.get("OTHER"));
+    }
+
+    private static void route(String line, String client, PrintWriter out) {
+        if (line.startsWith("SIGNUP:")) {
+            handleSignup(line.substring(7).trim(), out);
+        } else if (line.startsWith("LOGIN:")) {
+            handleLogin(line.substring(6).trim(), client, out);
+        } else if (line.startsWith(BULK_SIGNUP)) {
+            out.println("ERROR: BULK_SIGNUP must be the first line of its own connection");
+        } else if (line.startsWith("WHOAMI:")) {
+            handleWhoAmI(line.substring(7).trim(), out);
+        } else if (line.startsWith("LOGOUT:")) {
+            handleLogout(line.substring(7).trim(), out);
+        } else if (line.equals("GET_USERS")) {
+            handleGetUsers(out);
+        } else if (line.startsWith("GET_USERS:")) {
+            handleQueryUsers(line.substring(10).trim(), out);
+        } else if (line.equals("GET_LOGS")) {
+            handleGetLogs(out);
+        } else if (line.startsWith("GET_LOGS:")) {
+            handleQueryLogs(line.substring(9).trim(), out);
+        } else if (line.startsWith("COUNT_LOGS:")) {
+            handleCountLogs(line.substring(11).trim(), out);
+        } else if (line.equals("REPORT")) {
+            handleReport("", out);
+        } else if (line.startsWith("REPORT:")) {
+            handleReport(line.substring(7).trim(), out);
+        } else if (line.startsWith("BAN:")) {
+            handleBanUser(line.substring(4).trim(), out);
+        } else if (line.startsWith("RESET:")) {
+            handleResetUser(line.substring(6).trim(), out);
+        } else if (line.equals("LOG_STATS")) {
+            out.println(DatabaseHelper.logStats());
+        } else if (line.equals("CONN_STATS")) {
+            out.println(connections == null ? "ERROR: Not available in nio mode" : connections.describe());
+        } else if (line.equals("STATS")) {
+            Metrics.report(out);
+            out.println("END");
+        } else if (line.equals("THROTTLE_STATS")) {
+            out.println(THROTTLE == null ? "ERROR: Throttling disabled" : THROTTLE.describe());
+        } else if (line.equals("HASH_STATS")) {
+            out.println(HashingPool.describe());
+        } else {
+            out.println("ERROR: Unknown request type");
+        }
+    }
+
     private static void handleSignup(String data, PrintWriter out) {
-        String[] parts = data.split(",");
-        if (parts.length < 3) {
+        String[] parts = fields(data, 3);
+        if (parts == null) {
             out.println("ERROR: Invalid signup format");
             DatabaseHelper.logEvent("SIGNUP_FAIL", "Invalid format: " + data);
             return;
         }
 
-        String username = parts[0].trim();
-        String email = parts[1].trim();
-        String password = parts[2].trim();
+        signup(parts[0], parts[1], parts[2], out);
+    }
 
+    /** The first {@code count} comma-separated values of a SIGNUP/LOGIN line, trimmed; null if there are fewer. */
+    static String[] fields(String data, int count) {
+        String[] parts = data.split(",");
+        if (parts.length < count) return null;
+        for (int i = 0; i < count; i++) parts[i] = parts[i].trim();
+        return parts;
+    }
+
+    private static void signup(String username, String email, String password, PrintWriter out) {
+        int slash = username.indexOf('/');
+        if (slash >= 0 && !DatabaseHelper.hasTenant(username.substring(0, slash))) {
+            out.println("ERROR: Unknown tenant: " + username.substring(0, slash));
+            DatabaseHelper.logEvent("SIGNUP_FAIL", "Unknown or invalid tenant for username=" + username);
+            return;
+        }
         boolean success = DatabaseHelper.registerUser(username, email, password);
 
         if (success) {
@@ -83,29 +288,147 @@ public class Server {
         }
     }
 
-    private static void handleLogin(String data, PrintWriter out) {
-        String[] parts = data.split(",");
-        if (parts.length < 2) {
+    private static void handleLogin(String data, String client, PrintWriter out) {
+        String[] parts = fields(data, 2);
+        if (parts == null) {
             out.println("ERROR: Invalid login format");
             DatabaseHelper.logEvent("LOGIN_FAIL", "Invalid format: " + data);
             return;
         }
 
-        String username = parts[0].trim();
-        String password = parts[1].trim();
+        login(parts[0], parts[1], client, out);
+    }
+
+    private static void login(String username, String password, String client, PrintWriter out) {
+        // before any hashing, so a guessing loop costs two CAS operations per attempt
+        if (THROTTLE != null && !THROTTLE.tryAcquire(username, client)) {
+            out.println("ERROR: slow down");
+            return;
+        }
 
         boolean valid = DatabaseHelper.validateLogin(username, password);
 
         if (valid) {
-            out.println("SUCCESS: Login successful");
+            out.println("SUCCESS: Login successful; token=" + SESSIONS.create(username));
         } else {
             out.println("ERROR: Invalid username or password");
         }
     }
 
+    /** Source of BULK_SIGNUP rows: the socket in thread mode, rows already framed in nio mode. */
+    interface Rows {
+        String next() throws IOException; // null at end of input
+    }
+
+    /**
+     * BULK_SIGNUP: [&lt;tenant&gt;/]&lt;n&gt; followed by n "username,email,password" lines, all for that tenant.
+     * Hashing starts while later rows are still arriving. Replies with one "SKIP &lt;row&gt; &lt;reason&gt;"
+     * line per rejected row, then "SUCCESS: Imported k of n".
+     */
+    static void handleBulkSignup(String spec, Rows rows, PrintWriter out) throws IOException {
+        int n = bulkCount(spec);
+        if (n < 0) {
+            out.println("ERROR: Invalid bulk signup format");
+            return;
+        }
+        if (n < 1 || n > BULK_MAX) {
+            out.println("ERROR: Row count must be 1.." + BULK_MAX);
+            return;
+        }
+        long start = System.nanoTime();
+        int slash = spec.indexOf('/');
+        try (UserShard.BulkSignup bulk = DatabaseHelper.beginBulkSignup(slash < 0 ? null : spec.substring(0, slash).trim())) {
+            for (int i = 1; i <= n; i++) {
+                String row = rows.next();
+                if (row == null) {
+                    out.println("ERROR: Expected " + n + " rows, got " + (i - 1));
+                    return;
+                }
+                String reason = bulk.add(row);
+                if (reason != null) out.println("SKIP " + i + " " + reason);
+            }
+            int imported = bulk.commit(reason -> out.println("SKIP - " + reason));
+            out.println("SUCCESS: Imported " + imported + " of " + n);
+        } catch (ServerBusyException e) {
+            out.println("ERROR: busy");
+        } catch (IllegalArgumentException e) {
+            out.println("ERROR: " + e.getMessage());
+        } finally {
+            TIMERS.get("BULK_SIGNUP").since(start);
+        }
+    }
+
+    /** "120" or "greenfield/120" -> 120; -1 if the count is not a number. */
+    static int bulkCount(String spec) {
+        try {
+            return Integer.parseInt(spec.substring(spec.indexOf('/') + 1).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** WHOAMI:&lt;token&gt; -> "SUCCESS: &lt;username&gt;" for a live session; no password hashing involved. */
+    private static void handleWhoAmI(String token, PrintWriter out) {
+        String username = SESSIONS.validate(token);
+        if (username != null) {
+            out.println("SUCCESS: " + username);
+        } else {
+            out.println("ERROR: Invalid or expired session");
+        }
+    }
+
+    private static void handleLogout(String token, PrintWriter out) {
+        if (SESSIONS.remove(token)) {
+            out.println("SUCCESS: Logged out");
+        } else {
+            out.println("ERROR: Invalid or expired session");
+        }
+    }
+
     private static void handleGetUsers(PrintWriter out) {
-        String result = DatabaseHelper.getAllUsers();
-        out.println(result);
+        out.println("username,email,status");
+        DatabaseHelper.streamUsers(null, 0, null, null, out::println);
+    }
+
+    /**
+     * GET_USERS: cursor=&lt;username&gt;, limit=N, status=ACTIVE|BANNED, domain=&lt;email domain&gt;,
+     * tenant=&lt;school&gt; (all optional).
+     * Replies with the CSV header, one row per user, then "END &lt;next cursor&gt;" ("END -" when done).
+     */
+    private static void handleQueryUsers(String spec, PrintWriter out) {
+        String cursor = null, status = null, domain = null, tenant = null;
+        int limit = 100;
+        try {
+            for (String part : spec.split(",")) {
+                String p = part.trim();
+                if (p.isEmpty()) continue;
+                int eq = p.indexOf('=');
+                if (eq <= 0) throw new IllegalArgumentException("Bad parameter: " + p);
+                String value = p.substring(eq + 1).trim();
+                switch (p.substring(0, eq).trim()) {
+                    case "cursor" -> cursor = value.isEmpty() || value.equals("-") ? null : value;
+                    case "limit" -> limit = Math.min(10_000, Math.max(1, Integer.parseInt(value)));
+                    case "status" -> status = value.toUpperCase();
+                    case "domain" -> domain = value;
+                    case "tenant" -> tenant = value;
+                    default -> throw new IllegalArgumentException("Unknown parameter: " + p.substring(0, eq).trim());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            out.println("ERROR: " + e.getMessage());
+            return;
+        }
+        if (tenant != null && !DatabaseHelper.hasTenant(tenant)) {
+            out.println("ERROR: Unknown tenant: " + tenant);
+            return;
+        }
+        out.println("username,email,status");
+        int[] sent = {0};
+        String last = DatabaseHelper.streamUsers(tenant, cursor, limit, status, domain, row -> {
+            out.println(row);
+            sent[0]++;
+        });
+        out.println("END " + (last == null || sent[0] < limit ? "-" : last));
     }
 
     private static void handleGetLogs(PrintWriter out) {
@@ -113,9 +436,42 @@ public class Server {
         out.println(logs);
     }
 
+    /** Paginated/filtered log read: one line per entry, then "END &lt;count&gt;". */
+    private static void handleQueryLogs(String spec, PrintWriter out) {
+        try {
+            int n = DatabaseHelper.queryLogs(spec, out::println);
+            out.println("END " + n);
+        } catch (IllegalArgumentException e) {
+            out.println("ERROR: " + e.getMessage());
+        } catch (IOException e) {
+            out.println("ERROR: cannot read logs");
+        }
+    }
+
+    private static void handleCountLogs(String spec, PrintWriter out) {
+        try {
+            out.println("COUNT " + DatabaseHelper.countLogs(spec));
+        } catch (IllegalArgumentException e) {
+            out.println("ERROR: " + e.getMessage());
+        } catch (IOException e) {
+            out.println("ERROR: cannot read logs");
+        }
+    }
+
+    /** Usage report from the rollup counters: a CSV header, the rows, then "END &lt;rows&gt;". */
+    private static void handleReport(String spec, PrintWriter out) {
+        try {
+            int n = DatabaseHelper.report(spec, out::println);
+            out.println("END " + n);
+        } catch (IllegalArgumentException e) {
+            out.println("ERROR: " + e.getMessage());
+        }
+    }
+
     private static void handleBanUser(String username, PrintWriter out) {
         boolean success = DatabaseHelper.banUser(username);
         if (success) {
+            SESSIONS.removeUser(username);
             out.println("SUCCESS: User banned");
         } else {
             out.println("ERROR: Failed to ban user");
@@ -125,6 +481,7 @@ public class Server {
     private static void handleResetUser(String username, PrintWriter out) {
         boolean success = DatabaseHelper.resetUser(username);
         if (success) {
+            SESSIONS.removeUser(username);
             out.println("SUCCESS: User reset");
         } else {
             out.println("ERROR: Failed to reset user");
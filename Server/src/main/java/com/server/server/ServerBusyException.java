@@ -0,0 +1,11 @@
+package com.server.server;
+
+/** Thrown when a bounded stage rejects work; dispatch turns it into "ERROR: busy". */
+public class ServerBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ServerBusyException(String message) {
+        super(message, null, false, false); // no stack trace: this is flow control, not a bug
+    }
+}
@@ -0,0 +1,127 @@
+package com.server.server;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Server-side session table: LOGIN hands out an opaque token, later requests present it and are
+ * resolved to a username with one hash lookup instead of another password hash.
+ *
+ * Sessions slide: every successful lookup pushes the expiry out by the TTL. Expiry is driven by a
+ * hashed timing wheel of {@code slots} buckets advanced once per tick, so the cleaner only ever
+ * touches the sessions filed under the current bucket; a session whose deadline moved on is
+ * re-filed rather than dropped. Lookups also check the deadline, so an expired token never
+ * validates even if the wheel has not reached it yet.
+ */
+public class SessionManager {
+
+    private final long ttlMs;
+    private final long tickMs;
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    private final List<Set<Session>> wheel;
+    private volatile long tick; // number of ticks processed
+
+    private static final class Session {
+        final String token;
+        final String username;
+        volatile long expiresAt;
+
+        Session(String token, String username, long expiresAt) {
+            this.token = token;
+            this.username = username;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    public SessionManager(long ttlMs, long tickMs, int slots) {
+        this.ttlMs = ttlMs;
+        this.tickMs = tickMs;
+        this.wheel = new ArrayList<>(slots);
+        for (int i = 0; i < slots; i++) wheel.add(ConcurrentHashMap.newKeySet());
+        this.tick = System.currentTimeMillis() / tickMs;
+    }
+
+    /** Reads server.session.ttlSec (default 1800), server.session.tickMs (1000) and server.session.slots (512). */
+    public static SessionManager fromProperties() {
+        SessionManager m = new SessionManager(
+                Long.getLong("server.session.ttlSec", 1800) * 1000,
+                Long.getLong("server.session.tickMs", 1000),
+                Integer.getInteger("server.session.slots", 512));
+        m.start();
+        return m;
+    }
+
+    public String create(String username) {
+        byte[] raw = new byte[24];
+        PasswordHasher.random().nextBytes(raw);
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(raw);
+        Session s = new Session(token, username, System.currentTimeMillis() + ttlMs);
+        sessions.put(token, s);
+        file(s);
+        return token;
+    }
+
+    /** Username for a live token (and extends its expiry), or null. */
+    public String validate(String token) {
+        Session s = token == null ? null : sessions.get(token);
+        if (s == null) return null;
+        long now = System.currentTimeMillis();
+        if (s.expiresAt <= now) {
+            sessions.remove(token, s);
+            return null;
+        }
+        s.expiresAt = now + ttlMs;
+        return s.username;
+    }
+
+    public boolean remove(String token) {
+        return token != null && sessions.remove(token) != null;
+    }
+
+    /** Drops every session of a user (ban, password reset). Rare, so a full scan is fine. */
+    public void removeUser(String username) {
+        sessions.values().removeIf(s -> s.username.equals(username));
+    }
+
+    // ---------- Timing wheel ----------
+
+    private void start() {
+        ScheduledExecutorService bg = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "session-wheel");
+            t.setDaemon(true);
+            return t;
+        });
+        bg.scheduleAtFixedRate(this::advance, tickMs, tickMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void file(Session s) {
+        // never file into a bucket the wheel has already passed this turn
+        long due = Math.max(s.expiresAt / tickMs, tick + 1);
+        wheel.get((int) (due % wheel.size())).add(s);
+    }
+
+    /** Processes every bucket between the last processed tick and now. */
+    void advance() {
+        long now = System.currentTimeMillis();
+        long target = now / tickMs;
+        while (tick < target) {
+            long t = ++tick;
+            Set<Session> bucket = wheel.get((int) (t % wheel.size()));
+            for (Session s : bucket) {
+                bucket.remove(s);
+                if (sessions.get(s.token) != s) continue; // logged out or revoked
+                if (s.expiresAt <= now) {
+                    sessions.remove(s.token, s);
+                } else {
+                    file(s); // touched since filing, or due on a later turn of the wheel
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.server.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Collab protocol v2: binary stroke frames, negotiated per connection. A v2 client says
+ * "HELLO/2 user room"; the server answers the text line "OK 2" (or plain "OK" to stay on v1),
+ * and from then on both directions are frames:
+ *
+ *   TEXT   0  varint n, n bytes UTF-8            any v1 line: CHAT, INFO, PING, STATS, LEAVE ...
+ *   BEGIN  1  varint sender, varint n, n bytes name, u8 r, g, b, varint width, u8 tool, zz x, zz y
+ *   POINTS 2  varint sender, varint n, zz x, zz y, then n-1 x (zz dx, zz dy)
+ *   END    3  varint sender, zz x, zz y
+ *
+ * Coordinates and width are quantized to 1/10 px; zz is a zig-zag varint. A stroke's colour,
+ * width and tool travel once in BEGIN. POINTS starts from an absolute point, so every frame
+ * stands alone and an outbox may still drop one under load. Clients send sender 0 and an empty
+ * name; the server sends its own id for the sender and the sender's name.
+ */
+public final class StrokeProtocol {
+
+    public static final int VERSION = 2;
+
+    public static final int TEXT = 0;
+    public static final int BEGIN = 1;
+    public static final int POINTS = 2;
+    public static final int END = 3;
+
+    public static final int TOOL_PEN = 0; // v1 sender, tool unknown
+    public static final int TOOL_PENCIL = 1;
+    public static final int TOOL_BRUSH = 2;
+    public static final int TOOL_ERASER = 3;
+
+    static final int MAX_TEXT = 64 * 1024;
+    static final int MAX_POINTS = 4096;
+
+    private StrokeProtocol() {}
+
+    /** A decoded client frame; xy holds absolute quantized points (one for BEGIN and END). */
+    public record Frame(int type, String text, int rgb, int width, int tool, int[] xy) {}
+
+    public static int quantize(double v) {
+        return (int) Math.round(v * 10);
+    }
+
+    /** "#RRGGBB" as 0xRRGGBB, 0 (black) if it is anything else. */
+    public static int rgb(String hex) {
+        if (hex.length() != 7 || hex.charAt(0) != '#') return 0;
+        try {
+            return Integer.parseInt(hex.substring(1), 16);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static String hex(int rgb) {
+        return String.format("#%06X", rgb & 0xFFFFFF);
+    }
+
+    /** A quantized value as v1 prints it. */
+    public static String decimal(int q) {
+        return Double.toString(q / 10.0);
+    }
+
+    // ---------- Encoding (read-only buffers, shared like Outbox.encode) ----------
+
+    public static ByteBuffer text(String line) {
+        byte[] b = line.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(b.length + 4);
+        out.write(TEXT);
+        varint(out, b.length);
+        out.write(b, 0, b.length);
+        return done(out);
+    }
+
+    public static ByteBuffer begin(int sender, String name, int rgb, int width, int tool, int x, int y) {
+        byte[] n = name.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(n.length + 16);
+        out.write(BEGIN);
+        varint(out, sender);
+        varint(out, n.length);
+        out.write(n, 0, n.length);
+        out.write(rgb >> 16);
+        out.write(rgb >> 8);
+        out.write(rgb);
+        varint(out, width);
+        out.write(tool);
+        zigzag(out, x);
+        zigzag(out, y);
+        return done(out);
+    }
+
+    /** Points xy[0..2n) as one frame: the first absolute, the rest as deltas. */
+    public static ByteBuffer points(int sender, int[] xy, int n) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(6 + 2 * n);
+        out.write(POINTS);
+        varint(out, sender);
+        varint(out, n);
+        int px = 0, py = 0;
+        for (int i = 0; i < 2 * n; i += 2) {
+            zigzag(out, xy[i] - px);
+            zigzag(out, xy[i + 1] - py);
+            px = xy[i];
+            py = xy[i + 1];
+        }
+        return done(out);
+    }
+
+    public static ByteBuffer end(int sender, int x, int y) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(12);
+        out.write(END);
+        varint(out, sender);
+        zigzag(out, x);
+        zigzag(out, y);
+        return done(out);
+    }
+
+    private static ByteBuffer done(ByteArrayOutputStream out) {
+        return ByteBuffer.wrap(out.toByteArray()).asReadOnlyBuffer();
+    }
+
+    static void varint(ByteArrayOutputStream out, int v) {
+        while ((v & ~0x7F) != 0) {
+            out.write((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        out.write(v);
+    }
+
+    static void zigzag(ByteArrayOutputStream out, int v) {
+        varint(out, (v << 1) ^ (v >> 31));
+    }
+
+    // ---------- Decoding ----------
+
+    /** Next frame from a v2 client; sender and name are read and ignored. */
+    public static Frame read(DataInputStream in) throws IOException {
+        int type = in.read();
+        if (type < 0) throw new EOFException();
+        switch (type) {
+            case TEXT -> {
+                int n = readVarint(in);
+                if (n > MAX_TEXT) throw new IOException("Text frame too long: " + n);
+                byte[] b = new byte[n];
+                in.readFully(b);
+                return new Frame(TEXT, new String(b, StandardCharsets.UTF_8), 0, 0, 0, null);
+            }
+            case BEGIN -> {
+                readVarint(in);
+                in.skipNBytes(readVarint(in));
+                int rgb = in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+                int width = readVarint(in);
+                int tool = in.readUnsignedByte();
+                int x = readZigzag(in), y = readZigzag(in);
+                return new Frame(BEGIN, null, rgb, width, tool, new int[] { x, y });
+            }
+            case POINTS -> {
+                readVarint(in);
+                int n = readVarint(in);
+                if (n < 1 || n > MAX_POINTS) throw new IOException("Bad point count: " + n);
+                int[] xy = new int[2 * n];
+                int px = 0, py = 0;
+                for (int i = 0; i < 2 * n; i += 2) {
+                    px = xy[i] = px + readZigzag(in);
+                    py = xy[i + 1] = py + readZigzag(in);
+                }
+                return new Frame(POINTS, null, 0, 0, 0, xy);
+            }
+            case END -> {
+                readVarint(in);
+                int x = readZigzag(in), y = readZigzag(in);
+                return new Frame(END, null, 0, 0, 0, new int[] { x, y });
+            }
+            default -> throw new IOException("Bad frame type: " + type);
+        }
+    }
+
+    static int readVarint(DataInputStream in) throws IOException {
+        int v = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            v |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return v;
+        }
+        throw new IOException("Bad varint");
+    }
+
+    static int readZigzag(DataInputStream in) throws IOException {
+        int u = readVarint(in);
+        return (u >>> 1) ^ -(u & 1);
+    }
+}
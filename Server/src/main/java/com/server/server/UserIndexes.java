@@ -0,0 +1,55 @@
+package com.server.server;
+
+import java.util.Locale;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Sorted username indexes kept next to DatabaseHelper's user map:
+ * every user, users by status (ACTIVE/BANNED) and users by email domain.
+ * They let GET_USERS page with a username cursor and filter without touching non-matching users.
+ * Updated by DatabaseHelper under the username's stripe lock, read without locks.
+ */
+public class UserIndexes {
+
+    private final NavigableSet<String> all = new ConcurrentSkipListSet<>();
+    private final ConcurrentHashMap<String, NavigableSet<String>> byStatus = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, NavigableSet<String>> byDomain = new ConcurrentHashMap<>();
+
+    public void add(String username, String email, String status) {
+        all.add(username);
+        set(byStatus, status).add(username);
+        set(byDomain, domainOf(email)).add(username);
+    }
+
+    public void changeStatus(String username, String from, String to) {
+        if (from.equals(to)) return;
+        set(byStatus, to).add(username);
+        NavigableSet<String> old = byStatus.get(from);
+        if (old != null) old.remove(username);
+    }
+
+    /**
+     * Usernames after {@code cursor} (exclusive; null = from the start) in sorted order, narrowed by
+     * the optional status and domain filters. Iterates the domain set when given, since it is usually
+     * the smallest; callers re-check the other filter against the current record.
+     */
+    public NavigableSet<String> candidates(String cursor, String status, String domain) {
+        NavigableSet<String> base;
+        if (domain != null) base = byDomain.get(domain.toLowerCase(Locale.ROOT));
+        else if (status != null) base = byStatus.get(status);
+        else base = all;
+        if (base == null) return new ConcurrentSkipListSet<>();
+        return cursor == null ? base : base.tailSet(cursor, false);
+    }
+
+    public static String domainOf(String email) {
+        int at = email.lastIndexOf('@');
+        return at < 0 ? "" : email.substring(at + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static NavigableSet<String> set(ConcurrentHashMap<String, NavigableSet<String>> map, String key) {
+        return map.computeIfAbsent(key, k -> new ConcurrentSkipListSet<>());
+    }
+}
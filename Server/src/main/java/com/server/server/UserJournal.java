@@ -0,0 +1,213 @@
+package com.server.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+
+/**
+ * Append-only journal of user mutations, sitting next to the users.txt snapshot.
+ *
+ * users.journal      -> one CSV record per mutation, appended in O(1)
+ * users.journal.old  -> the previous journal while a compaction is writing a new snapshot
+ *
+ * Appends are not fsynced individually: a background task forces the channel every
+ * syncIntervalMs (group fsync), and a second task periodically folds the journal into a fresh
+ * snapshot. Records carry absolute values, so replaying one twice is harmless.
+ */
+public class UserJournal implements Closeable {
+
+    private final Path snapshot;
+    private final Path active;
+    private final Path old;
+    private final int compactThreshold;
+    private final ScheduledExecutorService background;
+
+    private FileChannel channel;
+    private boolean dirty;
+    private int appendedSinceCompaction;
+
+    public UserJournal(Path snapshot, Path journal, int compactThreshold) throws IOException {
+        this.snapshot = snapshot;
+        this.active = journal;
+        this.old = journal.resolveSibling(journal.getFileName() + ".old");
+        this.compactThreshold = compactThreshold;
+        dropTornTail(active);
+        this.channel = open(active);
+        this.background = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "user-journal");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /** Feeds every journal record (older generation first) to the consumer, skipping a torn last line. */
+    public void replay(Consumer<String> record) throws IOException {
+        for (Path p : List.of(old, active)) {
+            if (Files.notExists(p)) continue;
+            boolean terminated = endsWithNewline(p);
+            try (BufferedReader br = Files.newBufferedReader(p, StandardCharsets.UTF_8)) {
+                String line = br.readLine();
+                while (line != null) {
+                    String next = br.readLine();
+                    // an unterminated last line is a write cut off by a crash
+                    if (!line.isBlank() && (next != null || terminated)) record.accept(line);
+                    line = next;
+                }
+            }
+        }
+    }
+
+    /** Appends one record. Durable after the next background sync (or {@link #sync()}). */
+    public synchronized void append(String record) {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap((record + "\n").getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+            dirty = true;
+            appendedSinceCompaction++;
+        } catch (IOException e) {
+            // best-effort like the old persistUsers; the in-memory cache is already updated
+            System.err.println("Journal append failed: " + e.getMessage());
+        }
+    }
+
+    /** Appends several records with a single write (bulk import). */
+    public synchronized void appendAll(List<String> records) {
+        if (records.isEmpty()) return;
+        StringBuilder sb = new StringBuilder(records.size() * 128);
+        for (String r : records) sb.append(r).append('\n');
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+            while (buf.hasRemaining()) channel.write(buf);
+            dirty = true;
+            appendedSinceCompaction += records.size();
+        } catch (IOException e) {
+            System.err.println("Journal append failed: " + e.getMessage());
+        }
+    }
+
+    public synchronized void sync() {
+        if (!dirty) return;
+        try {
+            channel.force(false);
+            dirty = false;
+        } catch (IOException e) {
+            System.err.println("Journal sync failed: " + e.getMessage());
+        }
+    }
+
+    /** Writes the current user table somewhere durable, so the rotated journal can be dropped. */
+    @FunctionalInterface
+    public interface Checkpoint {
+        void write() throws Exception;
+    }
+
+    /**
+     * Starts group fsync every syncIntervalMs and a compaction check every compactIntervalSec.
+     * snapshotLines must return the full current user table in snapshot (users.txt) format.
+     */
+    public void start(long syncIntervalMs, long compactIntervalSec, Callable<List<String>> snapshotLines) {
+        start(syncIntervalMs, compactIntervalSec, () -> writeSnapshot(snapshotLines.call()));
+    }
+
+    /** Same, for stores that checkpoint themselves instead of rewriting users.txt. */
+    public void start(long syncIntervalMs, long compactIntervalSec, Checkpoint checkpoint) {
+        background.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+        background.scheduleWithFixedDelay(() -> {
+            try {
+                if (needsCompaction()) compact(checkpoint);
+            } catch (Exception e) {
+                System.err.println("Journal compaction failed: " + e.getMessage());
+            }
+        }, compactIntervalSec, compactIntervalSec, TimeUnit.SECONDS);
+        Runtime.getRuntime().addShutdownHook(new Thread(this::sync, "user-journal-sync"));
+    }
+
+    private synchronized boolean needsCompaction() {
+        return appendedSinceCompaction >= compactThreshold || Files.exists(old);
+    }
+
+    /**
+     * Rotates the journal, writes a new snapshot next to users.txt and atomically swaps it in.
+     * Rotation happens before the table is copied, so any mutation either lands in the old
+     * generation (and is in the copy) or in the new journal (replayed on top of the snapshot).
+     */
+    public void compact(Callable<List<String>> snapshotLines) throws Exception {
+        compact(() -> writeSnapshot(snapshotLines.call()));
+    }
+
+    /** Rotates the journal, runs the checkpoint, then drops the rotated generation. */
+    public void compact(Checkpoint checkpoint) throws Exception {
+        synchronized (this) {
+            // a leftover .old means an earlier compaction died; its records are already in memory
+            if (Files.notExists(old)) {
+                channel.force(false);
+                channel.close();
+                Files.move(active, old, StandardCopyOption.ATOMIC_MOVE);
+                channel = open(active);
+                dirty = false;
+            }
+            appendedSinceCompaction = 0;
+        }
+
+        checkpoint.write();
+        Files.deleteIfExists(old);
+    }
+
+    private void writeSnapshot(List<String> lines) throws IOException {
+        Path tmp = snapshot.resolveSibling(snapshot.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             Writer w = new BufferedWriter(new OutputStreamWriter(Channels.newOutputStream(out), StandardCharsets.UTF_8))) {
+            for (String l : lines) {
+                w.write(l);
+                w.write('\n');
+            }
+            w.flush();
+            out.force(true);
+        }
+        Files.move(tmp, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        background.shutdownNow();
+        sync();
+        channel.close();
+    }
+
+    private static boolean endsWithNewline(Path p) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size == 0) return true;
+            ByteBuffer last = ByteBuffer.allocate(1);
+            ch.read(last, size - 1);
+            return last.get(0) == '\n';
+        }
+    }
+
+    /** Cuts an unterminated last record so new appends don't get glued onto it. */
+    private static void dropTornTail(Path p) throws IOException {
+        if (Files.notExists(p)) return;
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long end = ch.size();
+            ByteBuffer b = ByteBuffer.allocate(1);
+            while (end > 0) {
+                b.clear();
+                ch.read(b, end - 1);
+                if (b.get(0) == '\n') break;
+                end--;
+            }
+            if (end < ch.size()) ch.truncate(end);
+        }
+    }
+
+    private static FileChannel open(Path p) throws IOException {
+        return FileChannel.open(p, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,535 @@
+package com.server.server;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.SecureRandom;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+/**
+ * One school's users and logs, in its own folder (see DatabaseHelper for how usernames pick one).
+ * users.txt      -> username,email,salt,hash,status   (snapshot, rewritten only by compaction)
+ * users.journal  -> P,username,email,salt,hash,status | B,username | R,username,salt,hash
+ *                   | H,username,salt,hash   (rehash on login, status unchanged)
+ * salt,hash are either legacy SHA-256 hex or an empty salt plus a bcrypt string, see PasswordHasher.
+ * users.db       -> binary, memory-mapped replacement for users.txt with -Ddb.store=mapped
+ * logs.txt       -> ISO_TIME,event,details   (active segment; older ones roll into logs/)
+ * rollups.bin    -> checkpoint of the per-minute/hour/day event counters, see ActivityRollups
+ */
+public class UserShard {
+
+    private final Path dir;
+    private final Path usersFile;
+    private final Path journalFile;
+    private final Path usersDb;
+    private final Path logsFile;
+
+    private static final String STATUS_ACTIVE = "ACTIVE";
+    private static final String STATUS_BANNED = "BANNED";
+
+    // In-memory cache for speed; every change is appended to the journal.
+    // username -> record. Records are immutable, so readers never lock; writers swap in a new
+    // record under the username's stripe lock so the map and journal see changes in the same order.
+    // With the mapped store the map only caches users touched since startup; see record().
+    private final ConcurrentHashMap<String, UserRecord> users = new ConcurrentHashMap<>();
+    private final Object[] stripes = new Object[64];
+    private final UserIndexes indexes = new UserIndexes();
+    private final MappedUserStore store; // null unless -Ddb.store=mapped
+    private final UserJournal journal;
+    private final EventLogger logger;
+    private final LogSegments logSegments;
+    private final ActivityRollups rollups;
+    private static final PasswordHasher HASHER = PasswordHasher.fromProperties();
+    private final Semaphore bulkPermit = new Semaphore(1);
+
+    /** Opens (creating if needed) the shard in dir: loads its users and starts its background threads. */
+    public UserShard(Path dir) {
+        this.dir = dir;
+        this.usersFile = dir.resolve("users.txt");
+        this.journalFile = dir.resolve("users.journal");
+        this.usersDb = dir.resolve("users.db");
+        this.logsFile = dir.resolve("logs.txt");
+        for (int i = 0; i < stripes.length; i++) stripes[i] = new Object();
+        initFiles();
+        logger = openLogger();
+        logSegments = openLogSegments();
+        logger.setSegments(logSegments);
+        logSegments.startCompression(Integer.getInteger("db.log.compressAfterDays", 7));
+        rollups = ActivityRollups.fromProperties(dir.resolve("rollups.bin"));
+        store = openStore();
+        journal = openJournal();
+        loadUsers();
+        buildIndexes();
+        long syncMs = Long.getLong("db.journal.syncMs", 50), compactSec = Long.getLong("db.journal.compactSec", 60);
+        if (store == null) {
+            journal.start(syncMs, compactSec, this::snapshotLines);
+        } else {
+            journal.start(syncMs, compactSec, this::checkpointStore);
+        }
+    }
+
+    // ---------- Public API, reached through DatabaseHelper ----------
+
+    public boolean registerUser(String username, String email, String password) {
+        if (username.isBlank() || email.isBlank() || password.isBlank()) {
+            logEvent("SIGNUP_FAIL", "Empty field(s) for username=" + username);
+            return false;
+        }
+        if (!storable(username) || username.indexOf('/') >= 0 || !storable(email)) {
+            // binary clients can send any character; these would break the CSV/journal records,
+            // and '/' separates the tenant
+            logEvent("SIGNUP_FAIL", "Invalid characters for username=" + username.replaceAll("[,\\r\\n]", "?"));
+            return false;
+        }
+        if (record(username) != null) {
+            logEvent("SIGNUP_FAIL", username, "User exists: " + username);
+            return false;
+        }
+        if (store != null && !MappedUserStore.fits(username, email, "", "", STATUS_ACTIVE)) {
+            logEvent("SIGNUP_FAIL", "Field too long for username=" + username);
+            return false;
+        }
+        // hash on the bounded pool before taking any lock; a racing signup for the same name just loses putIfAbsent
+        String[] sh = HashingPool.call(() -> HASHER.hash(password));
+        UserRecord rec = new UserRecord(username, email, sh[0], sh[1], STATUS_ACTIVE);
+        long waitStart = System.nanoTime();
+        synchronized (stripe(username)) {
+            Metrics.LOCK_WAIT.since(waitStart);
+            if (users.putIfAbsent(username, rec) != null) {
+                rec = null;
+            } else {
+                journal.append("P," + rec.toCsv());
+                indexes.add(username, email, STATUS_ACTIVE);
+            }
+        }
+        if (rec == null) {
+            logEvent("SIGNUP_FAIL", username, "User exists: " + username);
+            return false;
+        }
+        logEvent("SIGNUP_OK", username, "username=" + username + ", email=" + email);
+        return true;
+    }
+
+    public boolean validateLogin(String username, String password) {
+        UserRecord rec = record(username);
+        if (rec == null) {
+            logEvent("LOGIN_FAIL", "no_such_user: " + username);
+            return false;
+        }
+        if (STATUS_BANNED.equals(rec.status)) {
+            logEvent("LOGIN_FAIL", username, "banned_user: " + username);
+            return false;
+        }
+        // verify, and on success rehash rows written by an older scheme or cost, in one pool task
+        String[] upgraded = new String[2];
+        boolean ok = HashingPool.call(() -> {
+            if (!PasswordHasher.forStored(rec.hash, HASHER).verify(password, rec.salt, rec.hash)) return false;
+            if (!HASHER.isCurrent(rec.salt, rec.hash)) System.arraycopy(HASHER.hash(password), 0, upgraded, 0, 2);
+            return true;
+        });
+        if (ok && upgraded[1] != null) rehash(rec, upgraded[0], upgraded[1]);
+        logEvent(ok ? "LOGIN_OK" : "LOGIN_FAIL", username, "username=" + username);
+        return ok;
+    }
+
+    public String getAllUsers() {
+        // Return as newline-separated CSV header + rows
+        StringBuilder sb = new StringBuilder("username,email,status");
+        streamUsers(null, 0, null, null, row -> sb.append("\n").append(row));
+        return sb.toString();
+    }
+
+    /**
+     * Streams "username,email,status" rows in username order, starting after {@code cursor},
+     * optionally filtered by status and email domain via the secondary indexes.
+     * Returns the last username sent (the next cursor), or null if nothing matched.
+     * limit &lt;= 0 means no limit.
+     */
+    public String streamUsers(String cursor, int limit, String status, String domain, Consumer<String> sink) {
+        String last = null;
+        int sent = 0;
+        for (String username : indexes.candidates(cursor, status, domain)) {
+            UserRecord r = record(username);
+            if (r == null) continue;
+            if (status != null && !status.equals(r.status)) continue;
+            if (domain != null && !UserIndexes.domainOf(r.email).equalsIgnoreCase(domain)) continue;
+            sink.accept(r.username + "," + r.email + "," + r.status);
+            last = username;
+            if (limit > 0 && ++sent >= limit) break;
+        }
+        return last;
+    }
+
+    public String getLogs() {
+        logger.flush(1000);
+        try {
+            if (Files.notExists(logsFile)) return "";
+            return Files.readString(logsFile, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            return "ERROR: cannot read logs";
+        }
+    }
+
+    /**
+     * Streams the log lines selected by a GET_LOGS: spec (see LogQuery) to the sink, across all
+     * segments, skipping segments by header and seeking via the sparse offset index.
+     * Returns how many lines were sent.
+     */
+    public int queryLogs(String spec, Consumer<String> sink) throws IOException {
+        LogQuery query = LogQuery.parse(spec);
+        logger.flush(1000);
+        try (LogSegments.View view = logSegments.open()) {
+            return query.run(view, sink);
+        }
+    }
+
+    /** Counts lines matching a COUNT_LOGS: spec, answering from segment headers where possible. */
+    public long countLogs(String spec) throws IOException {
+        LogQuery query = LogQuery.parse(spec);
+        logger.flush(1000);
+        try (LogSegments.View view = logSegments.open()) {
+            return query.count(view);
+        }
+    }
+
+    public boolean banUser(String username) {
+        long waitStart = System.nanoTime();
+        synchronized (stripe(username)) {
+            Metrics.LOCK_WAIT.since(waitStart);
+            UserRecord rec = record(username);
+            if (rec == null) return false;
+            if (STATUS_BANNED.equals(rec.status)) return true;
+            users.put(username, rec.withStatus(STATUS_BANNED));
+            journal.append("B," + username);
+            indexes.changeStatus(username, rec.status, STATUS_BANNED);
+        }
+        logEvent("BAN", username, "username=" + username);
+        return true;
+    }
+
+    public boolean resetUser(String username) {
+        // sets status ACTIVE and resets password to a random temporary password (returned in logs)
+        if (record(username) == null) return false;
+        String temp = genTempPassword();
+        String[] sh = HashingPool.call(() -> HASHER.hash(temp));
+        long waitStart = System.nanoTime();
+        synchronized (stripe(username)) {
+            Metrics.LOCK_WAIT.since(waitStart);
+            UserRecord rec = record(username);
+            if (rec == null) return false;
+            users.put(username, new UserRecord(username, rec.email, sh[0], sh[1], STATUS_ACTIVE));
+            journal.append("R," + username + "," + sh[0] + "," + sh[1]);
+            indexes.changeStatus(username, rec.status, STATUS_ACTIVE);
+        }
+        logEvent("RESET", username, "username=" + username + ", temp_password=" + temp);
+        return true;
+    }
+
+    /** Queues the line for the group-commit writer; never blocks on the filesystem. */
+    public void logEvent(String event, String details) {
+        logEvent(event, null, details);
+    }
+
+    /** Same, and counts the event for username (an existing user, or null) in the rollups. */
+    public void logEvent(String event, String username, String details) {
+        String ts = LocalDateTime.now().format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+        logger.log(ts + "," + event + "," + details);
+        rollups.record(event, username);
+    }
+
+    /** REPORT: usage counters from the rollups, see ActivityRollups for the spec; returns the row count. */
+    public int report(String spec, Consumer<String> sink) {
+        return rollups.report(spec, sink);
+    }
+
+
+    /** Starts a BULK_SIGNUP batch; only one runs at a time, a second caller gets ServerBusyException. */
+    public BulkSignup beginBulkSignup() {
+        if (!bulkPermit.tryAcquire()) throw new ServerBusyException("bulk import already running");
+        return new BulkSignup();
+    }
+
+    /**
+     * One BULK_SIGNUP batch. Rows are validated as they arrive and their hashes start on the
+     * fork/join pool straight away; commit() waits for them and registers every accepted row in
+     * one step: one journal write, one fsync and one summary log entry.
+     */
+    public final class BulkSignup implements AutoCloseable {
+        private final List<String[]> accepted = new ArrayList<>(); // username, email
+        private final List<ForkJoinTask<String[]>> hashes = new ArrayList<>();
+        private final Set<String> seen = new HashSet<>();
+        private int rows;
+        private boolean closed;
+
+        private BulkSignup() {}
+
+        /** Takes one "username,email,password" row; returns null if accepted, else why it was skipped. */
+        public String add(String row) {
+            rows++;
+            String[] p = row.split(",", -1);
+            if (p.length < 3) return "invalid format";
+            String username = p[0].trim(), email = p[1].trim(), password = p[2].trim();
+            if (username.isEmpty() || email.isEmpty() || password.isEmpty()) return "empty field(s)";
+            if (username.indexOf('/') >= 0) return "invalid characters";
+            if (!seen.add(username)) return "duplicate in batch";
+            if (record(username) != null) return "user exists";
+            if (store != null && !MappedUserStore.fits(username, email, "", "", STATUS_ACTIVE)) return "field too long";
+            accepted.add(new String[] { username, email });
+            hashes.add(HashingPool.fork(() -> HASHER.hash(password)));
+            return null;
+        }
+
+        public int rows() { return rows; }
+
+        /**
+         * Registers the accepted rows and returns how many were imported. Holds every stripe lock
+         * while it updates the map and writes the journal, so no single-user change can slip
+         * between them. Rows taken by a concurrent SIGNUP meanwhile are reported to {@code skipped}.
+         */
+        public int commit(Consumer<String> skipped) {
+            List<UserRecord> recs = new ArrayList<>(accepted.size());
+            for (int i = 0; i < accepted.size(); i++) {
+                String[] sh = hashes.get(i).join();
+                recs.add(new UserRecord(accepted.get(i)[0], accepted.get(i)[1], sh[0], sh[1], STATUS_ACTIVE));
+            }
+            List<String> lines = new ArrayList<>(recs.size());
+            lockAllStripes(0, () -> {
+                for (UserRecord rec : recs) {
+                    if (record(rec.username) != null) {
+                        skipped.accept(rec.username + ": user exists");
+                        continue;
+                    }
+                    users.put(rec.username, rec);
+                    indexes.add(rec.username, rec.email, rec.status);
+                    lines.add("P," + rec.toCsv());
+                }
+                journal.appendAll(lines);
+            });
+            journal.sync();
+            logEvent("BULK_SIGNUP", "imported=" + lines.size() + ", rows=" + rows);
+            return lines.size();
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            for (ForkJoinTask<String[]> t : hashes) t.cancel(false);
+            bulkPermit.release();
+        }
+    }
+
+    private void lockAllStripes(int i, Runnable body) {
+        if (i == stripes.length) {
+            body.run();
+            return;
+        }
+        synchronized (stripes[i]) {
+            lockAllStripes(i + 1, body);
+        }
+    }
+
+    /** Swaps in the new hash unless the record changed (ban, reset, another rehash) since it was read. */
+    private void rehash(UserRecord seen, String salt, String hash) {
+        long waitStart = System.nanoTime();
+        synchronized (stripe(seen.username)) {
+            Metrics.LOCK_WAIT.since(waitStart);
+            if (users.get(seen.username) != seen) return;
+            users.put(seen.username, new UserRecord(seen.username, seen.email, salt, hash, seen.status));
+            journal.append("H," + seen.username + "," + salt + "," + hash);
+        }
+        logEvent("REHASH", seen.username, "username=" + seen.username);
+    }
+
+    /** Rotates the journal and rewrites the snapshot now, as the compactor does on its timer. */
+    void persistUsers() throws Exception {
+        if (store == null) {
+            journal.compact(this::snapshotLines);
+        } else {
+            journal.compact(this::checkpointStore);
+        }
+    }
+
+    /** Queue depth, drop and batch counters of the event logger, and the rollup table sizes. */
+    public String logStats() {
+        return logger.describe() + " " + rollups.describe();
+    }
+
+    // ---------- Internals ----------
+
+    private void initFiles() {
+        try {
+            Files.createDirectories(dir);
+            if (Files.notExists(usersFile)) Files.createFile(usersFile);
+            if (Files.notExists(logsFile)) Files.createFile(logsFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to init data folder", e);
+        }
+    }
+
+    private EventLogger openLogger() {
+        try {
+            return EventLogger.fromProperties(logsFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open event log", e);
+        }
+    }
+
+    private LogSegments openLogSegments() {
+        try {
+            return LogSegments.fromProperties(logsFile);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open log segments", e);
+        }
+    }
+
+    private MappedUserStore openStore() {
+        if (!"mapped".equalsIgnoreCase(System.getProperty("db.store", "text"))) return null;
+        try {
+            if (Files.notExists(usersDb) && Files.size(usersFile) > 0) {
+                int n = MappedUserStore.convert(usersFile, usersDb);
+                System.out.println("Converted " + n + " users from users.txt to users.db");
+            }
+            return MappedUserStore.open(usersDb);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open users.db", e);
+        }
+    }
+
+    private UserJournal openJournal() {
+        try {
+            return new UserJournal(usersFile, journalFile, Integer.getInteger("db.journal.compactEvery", 1000));
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to open user journal", e);
+        }
+    }
+
+    private void loadUsers() {
+        if (store != null) {
+            replayJournal(); // users.db is mapped, not loaded; only journaled users are cached
+            return;
+        }
+        try (BufferedReader br = Files.newBufferedReader(usersFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                if (line.isBlank() || line.startsWith("#")) continue;
+                String[] p = line.split(",", -1);
+                if (p.length < 5) continue;
+                users.put(p[0], new UserRecord(p[0], p[1], p[2], p[3], p[4]));
+            }
+        } catch (IOException e) {
+            // ignore, start empty
+        }
+        replayJournal();
+    }
+
+    private void replayJournal() {
+        try {
+            journal.replay(this::applyJournalRecord);
+        } catch (IOException e) {
+            System.err.println("Journal replay failed: " + e.getMessage());
+        }
+    }
+
+    private void applyJournalRecord(String line) {
+        String[] p = line.split(",", -1);
+        switch (p[0]) {
+            case "P" -> {
+                if (p.length >= 6) users.put(p[1], new UserRecord(p[1], p[2], p[3], p[4], p[5]));
+            }
+            case "B" -> {
+                UserRecord rec = p.length >= 2 ? record(p[1]) : null;
+                if (rec != null) users.put(p[1], rec.withStatus(STATUS_BANNED));
+            }
+            case "R" -> {
+                UserRecord rec = p.length >= 4 ? record(p[1]) : null;
+                if (rec != null) users.put(p[1], new UserRecord(p[1], rec.email, p[2], p[3], STATUS_ACTIVE));
+            }
+            case "H" -> {
+                UserRecord rec = p.length >= 4 ? record(p[1]) : null;
+                if (rec != null) users.put(p[1], new UserRecord(p[1], rec.email, p[2], p[3], rec.status));
+            }
+            default -> { /* unknown record type, skip */ }
+        }
+    }
+
+    /** The cache wins over users.db: it holds every change not yet checkpointed into the store. */
+    private void buildIndexes() {
+        if (store != null) {
+            store.forEachSummary(u -> {
+                if (!users.containsKey(u[0])) indexes.add(u[0], u[1], u[2]);
+            });
+        }
+        for (UserRecord r : users.values()) indexes.add(r.username, r.email, r.status);
+    }
+
+    /** Cached record, falling back to users.db (and caching the hit) with the mapped store. */
+    private UserRecord record(String username) {
+        UserRecord r = users.get(username);
+        if (r != null || store == null) return r;
+        String[] p = store.get(username);
+        if (p == null) return null;
+        UserRecord loaded = new UserRecord(p[0], p[1], p[2], p[3], p[4]);
+        UserRecord prev = users.putIfAbsent(username, loaded);
+        return prev != null ? prev : loaded;
+    }
+
+    /**
+     * Compaction for the mapped store: writes every cached record into users.db and forces it.
+     * Like snapshotLines, runs after the journal rotation, so a change it misses is in the new journal.
+     */
+    private void checkpointStore() throws IOException {
+        for (UserRecord r : users.values()) store.put(r.username, r.email, r.salt, r.hash, r.status);
+        store.force();
+    }
+
+    /**
+     * Current table in users.txt format, for journal compaction. Needs no lock: the journal is
+     * rotated first, so anything this weakly consistent view misses is replayed from the new journal.
+     */
+    private List<String> snapshotLines() {
+        List<String> lines = new ArrayList<>(users.size());
+        for (UserRecord r : users.values()) lines.add(r.toCsv());
+        return lines;
+    }
+
+    private static boolean storable(String field) {
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == ',' || c == '\n' || c == '\r') return false;
+        }
+        return true;
+    }
+
+    private Object stripe(String username) {
+        return stripes[(username.hashCode() & 0x7fffffff) % stripes.length];
+    }
+
+    private static String genTempPassword() {
+        String chars = "ABCDEFGHJKLMNPQRSTUVWXYZabcdefghijkmnopqrstuvwxyz23456789";
+        SecureRandom r = PasswordHasher.random();
+        StringBuilder sb = new StringBuilder(10);
+        for (int i = 0; i < 10; i++) sb.append(chars.charAt(r.nextInt(chars.length())));
+        return sb.toString();
+    }
+
+    // simple immutable record; updates replace it in users
+    private static final class UserRecord {
+        final String username, email, salt, hash, status;
+        UserRecord(String u, String e, String s, String h, String st) {
+            this.username = u; this.email = e; this.salt = s; this.hash = h; this.status = st;
+        }
+        UserRecord withStatus(String st) {
+            return new UserRecord(username, email, salt, hash, st);
+        }
+        String toCsv() {
+            return username + "," + email + "," + salt + "," + hash + "," + status;
+        }
+    }
+}
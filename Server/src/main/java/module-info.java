@@ -1,6 +1,8 @@
 module com.server.server {
     requires javafx.controls;
     requires javafx.fxml;
+    requires java.management;
+    requires jbcrypt;
 
 
     opens com.server.server to javafx.fxml;
@@ -0,0 +1,122 @@
+package com.server.server;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Many threads signing up, logging in and banning users of one shard at once. Usernames far
+ * outnumber the 64 stripe locks, so every stripe is shared, and the "shared" names are signed up
+ * by every thread at the same time. Checked at the end against what each thread was told.
+ */
+class UserShardConcurrencyTest {
+
+    private static final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors());
+    private static final int OWN = 200;    // users only one thread signs up
+    private static final int SHARED = 50;  // users every thread tries to sign up
+
+    private static Path dir;
+
+    @BeforeAll
+    static void setUp() throws IOException {
+        System.setProperty("db.hash", "sha256"); // hashing cost is not what is under test
+        System.setProperty("db.journal.compactSec", "86400");
+        dir = Files.createTempDirectory("shard-test");
+    }
+
+    @AfterAll
+    static void tearDown() throws IOException {
+        try (Stream<Path> s = Files.walk(dir)) {
+            s.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    void concurrentSignupLoginAndBanKeepTheStoreConsistent() throws Exception {
+        UserShard shard = new UserShard(dir);
+        ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+        CyclicBarrier start = new CyclicBarrier(THREADS + 1);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        AtomicInteger reads = new AtomicInteger();
+        ConcurrentHashMap<String, Integer> sharedWinner = new ConcurrentHashMap<>();
+
+        List<Future<?>> writers = new ArrayList<>();
+        for (int t = 0; t < THREADS; t++) {
+            int id = t;
+            writers.add(pool.submit(() -> {
+                start.await();
+                String pw = "pw" + id;
+                for (int i = 0; i < OWN; i++) {
+                    String u = "u" + id + "_" + i;
+                    assertTrue(shard.registerUser(u, u + "@t" + id + ".test", pw), u);
+                    if (i < SHARED && shard.registerUser("shared" + i, "shared" + i + "@t" + id + ".test", pw)) {
+                        assertNull(sharedWinner.putIfAbsent("shared" + i, id), "two signups won shared" + i);
+                    }
+                    assertTrue(shard.validateLogin(u, pw), u);
+                    assertFalse(shard.validateLogin(u, "wrong"), u);
+                    if (i % 2 == 1) {
+                        String prev = "u" + id + "_" + (i - 1);
+                        assertTrue(shard.banUser(prev), prev);
+                        assertFalse(shard.validateLogin(prev, pw), prev);
+                    }
+                }
+                return null;
+            }));
+        }
+        Future<?> reader = pool.submit(() -> {
+            start.await();
+            while (writing.get()) {
+                String all = shard.getAllUsers();
+                assertTrue(all.startsWith("username,email,status"));
+                for (String row : all.split("\n")) assertEquals(3, row.split(",", -1).length, row);
+                reads.incrementAndGet();
+            }
+            return null;
+        });
+
+        try {
+            for (Future<?> w : writers) w.get(2, TimeUnit.MINUTES);
+        } finally {
+            writing.set(false);
+            reader.get(1, TimeUnit.MINUTES);
+            pool.shutdown();
+        }
+        assertTrue(reads.get() > 0);
+
+        Map<String, String> rows = new HashMap<>();
+        String[] lines = shard.getAllUsers().split("\n");
+        for (int i = 1; i < lines.length; i++) {
+            String[] p = lines[i].split(",", -1);
+            assertNull(rows.put(p[0], p[1] + "," + p[2]), "listed twice: " + p[0]);
+        }
+        assertEquals(THREADS * OWN + SHARED, rows.size());
+        for (int t = 0; t < THREADS; t++) {
+            for (int i = 0; i < OWN; i++) {
+                String u = "u" + t + "_" + i;
+                assertEquals(u + "@t" + t + ".test," + (i % 2 == 0 ? "BANNED" : "ACTIVE"), rows.get(u));
+            }
+        }
+        assertEquals(SHARED, sharedWinner.size());
+        for (Map.Entry<String, Integer> e : sharedWinner.entrySet()) {
+            String u = e.getKey();
+            int winner = e.getValue();
+            assertEquals(u + "@t" + winner + ".test,ACTIVE", rows.get(u));
+            assertTrue(shard.validateLogin(u, "pw" + winner), u);
+        }
+    }
+}